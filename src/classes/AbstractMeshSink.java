@@ -0,0 +1,75 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import java.io.IOException;
+
+/**
+ * Base class for the mesh sinks. Keeps count of what has been written so that a mesh that does not match the counts
+ * given to begin() fails loudly instead of producing a corrupt file.
+ */
+abstract class AbstractMeshSink implements MeshSink {
+    private int vertexCount = -1, faceCount = -1;
+    private int vertices, faces;
+
+    @Override
+    public final void begin(int vertexCount, int faceCount) throws IOException {
+        if (this.vertexCount >= 0)
+            throw new IllegalStateException("Mesh has already begun");
+        this.vertexCount = vertexCount;
+        this.faceCount = faceCount;
+        writeHeader(vertexCount, faceCount);
+    }
+
+    @Override
+    public final void vertex(double x, double y, double z) throws IOException {
+        if (this.vertices >= this.vertexCount || this.faces > 0)
+            throw new IllegalStateException("Unexpected vertex " + this.vertices + " of " + this.vertexCount);
+        writeVertex(x, y, z);
+        this.vertices++;
+    }
+
+    @Override
+    public final void face(int a, int b, int c) throws IOException {
+        if (this.faces >= this.faceCount)
+            throw new IllegalStateException("Unexpected face " + this.faces + " of " + this.faceCount);
+        writeFace(a, b, c);
+        this.faces++;
+    }
+
+    @Override
+    public final void close() throws IOException {
+        try {
+            if (this.vertexCount >= 0 && (this.vertices != this.vertexCount || this.faces != this.faceCount))
+                throw new IOException("Mesh ended after " + this.vertices + "/" + this.vertexCount + " vertices and "
+                        + this.faces + "/" + this.faceCount + " faces");
+        } finally {
+            finish();
+        }
+    }
+
+    abstract void writeHeader(int vertexCount, int faceCount) throws IOException;
+
+    abstract void writeVertex(double x, double y, double z) throws IOException;
+
+    abstract void writeFace(int a, int b, int c) throws IOException;
+
+    /**
+     * Flushes and closes the underlying output.
+     */
+    abstract void finish() throws IOException;
+}
@@ -0,0 +1,191 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Generates the cities of many input images in one run. Every image gets its own output directory holding its chunk
+ * files and manifest. The chunks of all the images are rendered on a shared work-stealing pool, and the mesh library
+ * is loaded only once for the whole batch.
+ *
+ * Usage: BatchRunner [-out directory] [-threads n] [-scale n] [options] image or directory...
+ *
+ * The options are those of Main, see Main.parseOption(), except that chunks are always written to separate files and
+ * never journaled or resumed.
+ *
+ * Directories are searched for bmp, jpg, jpeg and png images. Images are used as they are, the size limits and sector
+ * scale processing applied by the UI are not repeated here.
+ */
+public class BatchRunner {
+    private static final String DEFAULT_OUT_DIR = "batch";
+    private static final String USAGE = "Usage: BatchRunner [-out directory] [-threads n] [-scale n] " + Main.OPTIONS
+            + " image or directory...";
+    private final ForkJoinPool pool;
+    private final File outDir;
+
+    /**
+     * @param outDir is the directory holding the output directory of each image.
+     * @param threads is the number of chunks rendered at the same time.
+     */
+    BatchRunner(File outDir, int threads) {
+        this.outDir = outDir;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Generates the city of every image, returning once all of them are written.
+     * @param images are the input image files.
+     * @return the number of images that failed.
+     */
+    int run(ArrayList<File> images) {
+        ArrayList<ForkJoinTask<Boolean>> jobs = new ArrayList<>();
+        for (File image : images)
+            jobs.add(this.pool.submit(() -> generate(image)));
+        int failed = 0;
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                if (!jobs.get(i).join())
+                    failed++;
+            } catch (RuntimeException e) {
+                Main.print("Failed to generate " + images.get(i) + ": " + e);
+                failed++;
+            }
+        }
+        this.pool.shutdown();
+        return failed;
+    }
+
+    /**
+     * Generates the city of one image. Its chunks are forked so that idle workers can steal them.
+     * @param file is the input image.
+     * @return true if every chunk and the manifest were written.
+     */
+    private boolean generate(File file) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = ImageIO.read(file);
+        if (image == null)
+            throw new IOException("Unsupported image format: " + file);
+        String name = file.getName();
+        File dir = new File(this.outDir, name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not create " + dir);
+
+        ArrayList<int[]> chunkBounds = Main.splitChunks(image);
+        int storyCap = Main.planStories(image, chunkBounds);
+        if (storyCap < 0)
+            return true;
+        FootprintCollider collider = App.resolveCollisions ? new FootprintCollider(image, storyCap) : null;
+
+        ArrayList<ForkJoinTask<ChunkInfo>> chunks = new ArrayList<>();
+        for (int num = 0; num < chunkBounds.size(); num++) {
+            int[] bounds = chunkBounds.get(num);
+            int n = num;
+            chunks.add(ForkJoinTask.adapt(() -> Main.renderChunk(image, bounds, n, storyCap, collider, dir)));
+        }
+        ForkJoinTask.invokeAll(chunks);
+
+        ChunkManifest manifest = new ChunkManifest();
+        boolean complete = true;
+        for (ForkJoinTask<ChunkInfo> chunk : chunks) {
+            ChunkInfo info = chunk.join();
+            if (info != null)
+                manifest.add(info);
+            else
+                complete = false;
+        }
+        manifest.write(new File(dir, ChunkManifest.MANIFEST_FILE));
+        Main.print("Finished " + file + " (" + chunks.size() + " chunks) in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return complete;
+    }
+
+    /**
+     * Finds the images given on the command line, searching directories for image files.
+     * @param paths are image files and directories.
+     * @return the images in a stable order.
+     */
+    static ArrayList<File> findImages(ArrayList<String> paths) {
+        ArrayList<File> images = new ArrayList<>();
+        for (String path : paths) {
+            File f = new File(path);
+            if (f.isDirectory()) {
+                File[] files = f.listFiles((dir, n) -> n.toLowerCase().matches(".*\\.(bmp|jpe?g|png)"));
+                if (files != null) {
+                    Arrays.sort(files);
+                    images.addAll(Arrays.asList(files));
+                }
+            } else {
+                images.add(f);
+            }
+        }
+        return images;
+    }
+
+    public static void main(String[] args) {
+        File outDir = new File(DEFAULT_OUT_DIR);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-out":
+                    outDir = new File(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-scale":
+                    App.scale = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    if (!args[i].startsWith("--")) {
+                        paths.add(args[i]);
+                        break;
+                    }
+                    i = Main.parseOption(args, i);
+                    if (i < 0) {
+                        System.err.println(USAGE);
+                        return;
+                    }
+                    break;
+            }
+        }
+        ArrayList<File> images = findImages(paths);
+        if (images.isEmpty()) {
+            System.err.println(USAGE);
+            return;
+        }
+        // Per building progress from many chunks at once is only noise
+        App.verbose = false;
+        long start = System.nanoTime();
+        int failed = new BatchRunner(outDir, threads).run(images);
+        Main.print("Generated " + (images.size() - failed) + " of " + images.size() + " images in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        if (failed > 0)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A buffered little-endian writer for binary mesh formats.
+ */
+class BinaryWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final OutputStream out;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    BinaryWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    void writeByte(int b) throws IOException {
+        ensureCapacity(1);
+        this.buffer.put((byte) b);
+    }
+
+    void writeShort(int s) throws IOException {
+        ensureCapacity(2);
+        this.buffer.putShort((short) s);
+    }
+
+    void writeInt(int i) throws IOException {
+        ensureCapacity(4);
+        this.buffer.putInt(i);
+    }
+
+    void writeLong(long l) throws IOException {
+        ensureCapacity(8);
+        this.buffer.putLong(l);
+    }
+
+    void writeFloat(float f) throws IOException {
+        ensureCapacity(4);
+        this.buffer.putFloat(f);
+    }
+
+    /**
+     * Writes a string of ASCII characters, used for headers.
+     * @param s is the string to write.
+     */
+    void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            writeByte(s.charAt(i));
+    }
+
+    private void ensureCapacity(int n) throws IOException {
+        if (this.buffer.remaining() < n)
+            flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (this.buffer.position() > 0) {
+            this.out.write(this.buffer.array(), 0, this.buffer.position());
+            this.buffer.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            this.out.close();
+        }
+    }
+}
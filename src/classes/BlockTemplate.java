@@ -0,0 +1,116 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import static classes.Grid.SECTION_SIZE;
+
+/**
+ * The layout of the buildings in a Block. A layout only depends on the block type and the sector scale, so every
+ * layout is built once up front and shared by all Blocks.
+ */
+class BlockTemplate {
+    static final int NUM_BLOCK_TYPES = 6;
+    static final int MAX_SCALE = 5;
+    private static final BlockTemplate[][] templates = new BlockTemplate[NUM_BLOCK_TYPES][MAX_SCALE];
+    private final Building[][] buildings = new Building[Block.SIZE][Block.SIZE];
+
+    static {
+        for (int blockType = 0; blockType < NUM_BLOCK_TYPES; blockType++)
+            for (int scale = 1; scale <= MAX_SCALE; scale++)
+                templates[blockType][scale - 1] = new BlockTemplate(blockType, scale);
+    }
+
+    /**
+     * Returns the shared layout for a block type at a sector scale.
+     * @param blockType is the type of the Block (0-5).
+     * @param scale is the sector scale.
+     * @return the layout of the Block's buildings.
+     */
+    static BlockTemplate get(int blockType, int scale) {
+        if (scale < 1 || scale > MAX_SCALE)
+            return new BlockTemplate(blockType, scale);
+        return templates[blockType][scale - 1];
+    }
+
+    private BlockTemplate(int blockType, int scale) {
+        double[][] offsets = getOffsets(scale);
+        switch (blockType) {
+            case 0:
+                this.setBuildingParameters(offsets, 0, 0, 0, 0, 0, 0, 0, 0);
+                break;
+            case 1:
+                this.setBuildingParameters(offsets, 1, 180, -1, 0, -1, 0, -1, 0);
+                break;
+            case 2:
+                this.setBuildingParameters(offsets, -1, 0, -1, 0, -1, 0, 1, 0);
+                break;
+            case 3:
+                this.setBuildingParameters(offsets, 3, 30, -1, 0, -1, 0, 3, 210);
+                break;
+            case 4:
+                this.setBuildingParameters(offsets, -1, 0, 3, -210, 3, -30, -1, 0);
+                break;
+            case 5:
+                // Center the pentagonal building in the middle of the Block
+                offsets[0] = new double[]{ (SECTION_SIZE*(scale-1))/2, (SECTION_SIZE*(scale-1))/2};
+                this.setBuildingParameters(offsets, 2, 0, -1, 0, -1, 0, -1, 0);
+                break;
+            default:
+                this.setBuildingParameters(offsets, -1, 0, -1, 0, -1, 0, -1, 0);
+                break;
+        }
+    }
+
+    /**
+     * @return the offsets of the four building slots for the given sector scale.
+     */
+    private static double[][] getOffsets(int scale) {
+        switch (scale) {
+            case 1:
+                return new double[][]{{-1.35, -1.35}, {-1.35, 1.35}, {1.35, -1.35}, {1.35, 1.35}};
+            case 2:
+                return new double[][]{{0.05, 0.05}, {0.05, 5.45}, {5.45, 0.05}, {5.45, 5.45}};
+            case 3:
+                return new double[][]{{1.45, 1.45}, {1.45, 9.55}, {9.55, 1.45}, {9.55, 9.55}};
+            case 4:
+                return new double[][]{{2.75, 2.75}, {2.75, 13.65}, {13.65, 2.75}, {13.65, 13.65}};
+            case 5:
+                return new double[][]{{4.25, 4.25}, {4.25, 17.75}, {17.75, 4.25}, {17.75, 17.75}};
+            default:
+                return new double[][]{{0, 0}, {0, 0}, {0, 0}, {0, 0}};
+        }
+    }
+
+    /**
+     * Fills the four slots with a shape type (-1 to leave the slot empty) and angle each.
+     */
+    private void setBuildingParameters(double[][] offsets, int i0, int a0, int i1, int a1, int i2, int a2, int i3, int a3) {
+        this.buildings[0][0] = new Building(i0, a0, offsets[0]);
+        this.buildings[0][1] = new Building(i1, a1, offsets[1]);
+        this.buildings[1][0] = new Building(i2, a2, offsets[2]);
+        this.buildings[1][1] = new Building(i3, a3, offsets[3]);
+    }
+
+    /**
+     * @param x is the x position of the building in the Block (0-1).
+     * @param y is the y position of the building in the Block (0-1).
+     * @return the building in the given slot.
+     */
+    Building getBuilding(int x, int y) {
+        return this.buildings[x][y];
+    }
+}
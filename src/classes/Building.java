@@ -14,87 +14,34 @@
  *     You should have received a copy of the GNU General Public License
  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
  */
-
 package classes;
 
-import java.util.Random;
-
 /**
- * The Building class contains all the necessary parameter data for its corresponding building.
+ * The Building class describes one of the four building slots of a Block layout: the shape of the building, its
+ * rotation and its offset within the Block. Buildings are immutable and shared between every Block of the same type
+ * and scale, the data that varies per pixel is kept by the Block.
  */
 class Building {
-    private int numStories, shapeType, x, y;
-    private double z;
-    private int angle = 0;
-    private double[] offset = {0, 0};
-    private boolean enabled, isRoad;
-
-    public Building(int numStories, int shapeType, int x, int y, double z, boolean enabled, boolean isRoad, double[] offset) {
-        this.numStories = numStories;
-        this.shapeType = shapeType;
-        this.x = x;
-        this.y = y;
-        this.z = z;
-        this.enabled = enabled;
-        this.isRoad = isRoad;
-        this.offset = offset;
-    }
-
-    /**
-     * Creates a Building object based on pixel data without alpha.
-     * @param red is the red value of the pixel.
-     * @param green is the green value of the pixel.
-     * @param blue is the blue value of the pixel.
-     * @param x is the x coordinate of the pixel.
-     * @param y is the y coordinate of the pixel.
-     */
-    Building(int red, int green, int blue, int x, int y) {
-        int varietyLvl = red / 64;
-        this.numStories = blue / 26;
-        this.z = green * 2;
-        this.shapeType = new Random().nextInt(varietyLvl + 1);
-        this.x = x;
-        this.y = y;
-        this.enabled = true;
-        this.isRoad = (red == green && red == blue);
-    }
+    private final int shapeType, angle;
+    private final double[] offset;
+    private final boolean enabled;
 
     /**
-     * Creates a Building object based on pixel data with alpha.
-     * @param red is the red value of the pixel.
-     * @param green is the green value of the pixel.
-     * @param blue is the blue value of the pixel.
-     * @param alpha is the alpha value of the pixel.
-     * @param x is the x coordinate of the pixel.
-     * @param y is the y coordinate of the pixel.
+     * @param shapeType is the shape of the building, or -1 if the slot is left empty.
+     * @param angle is the rotation of the building in degrees.
+     * @param offset is the position of the building within its Block. It must not be modified.
      */
-    Building(int red, int green, int blue, int alpha, int x, int y) {
-        int varietyLvl = red / 64;
-        this.numStories = blue / 26;
-        this.z = green * 2;
-        this.shapeType = new Random().nextInt(varietyLvl + 1);
-        this.x = x;
-        this.y = y;
-        this.enabled = alpha != 0;
-        this.isRoad = (red == green && red == blue);
+    Building(int shapeType, int angle, double[] offset) {
+        this.shapeType = Math.max(shapeType, 0);
+        this.angle = angle;
+        this.offset = offset;
+        this.enabled = shapeType > -1;
     }
 
     int getShapeType() {
         return shapeType;
     }
 
-    int getX() {
-        return this.x;
-    }
-
-    int getY() {
-        return this.y;
-    }
-
-    double getZ() {
-        return this.z;
-    }
-
     int getAngle() {
         return angle;
     }
@@ -103,46 +50,7 @@ class Building {
         return this.offset;
     }
 
-    void disable() {
-        this.enabled = false;
-    }
-
     boolean isEnabled() {
-        return enabled && !isRoad;
-    }
-
-    String getFileName() {
-        return "meshes/library-clean/CGAL_mesh_" + this.shapeType + "_" + this.numStories + ".off";
-    }
-
-    void setAngle(int i) {
-        this.angle = i;
-    }
-
-    void setOffset(double[] offset) {
-        this.offset = offset;
-    }
-
-    void setShapeType(int i) {
-        if (i < 0) {
-            this.enabled = false;
-            this.shapeType = 0;
-        }
-        else
-            this.shapeType = i;
-    }
-
-    public void setNumStories(int numStories) {
-        this.numStories = numStories;
-    }
-
-    public void setCoords(int x, int y, int z) {
-        this.x = x;
-        this.y = y;
-        this.z = z;
-    }
-
-    void setZ(double z) {
-        this.z = z;
+        return enabled;
     }
 }
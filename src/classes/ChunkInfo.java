@@ -0,0 +1,125 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import static classes.Grid.SECTION_SIZE;
+
+/**
+ * Describes an output chunk file: where its pixels lie in the input image, the extent of its geometry and the size
+ * and content hash of the file.
+ */
+class ChunkInfo {
+    private final int index;
+    private final String fileName;
+    private final int vertexCount, faceCount;
+    // Bounds of the chunk's geometry {minX, minY, minZ, maxX, maxY, maxZ} in the chunk's own coordinates
+    private final double[] bounds;
+    private final long bytes;
+    private final String hash;
+    private int originX, originY, width, height;
+
+    ChunkInfo(int index, String fileName, int vertexCount, int faceCount, double[] bounds, long bytes, String hash) {
+        this.index = index;
+        this.fileName = fileName;
+        this.vertexCount = vertexCount;
+        this.faceCount = faceCount;
+        this.bounds = bounds;
+        this.bytes = bytes;
+        this.hash = hash;
+    }
+
+    /**
+     * Sets the area of the input image covered by the chunk.
+     * @param originX is the x coordinate of the chunk's first pixel.
+     * @param originY is the y coordinate of the chunk's first pixel.
+     * @param width is the width of the chunk in pixels.
+     * @param height is the height of the chunk in pixels.
+     */
+    void setOrigin(int originX, int originY, int width, int height) {
+        this.originX = originX;
+        this.originY = originY;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Each chunk is generated around its own first pixel. Translating a chunk by this offset places it in the city.
+     * @return the {x, y} translation from chunk coordinates to world coordinates.
+     */
+    double[] getWorldOffset() {
+        // Adding zero keeps the first row at 0 rather than -0
+        return new double[]{SECTION_SIZE * this.originX, -SECTION_SIZE * this.originY + 0.0};
+    }
+
+    /**
+     * @return the bounds of the chunk's geometry {minX, minY, minZ, maxX, maxY, maxZ} in the chunk's own coordinates.
+     */
+    double[] getBounds() {
+        return this.bounds.clone();
+    }
+
+    /**
+     * @return the bounds of the chunk's geometry {minX, minY, minZ, maxX, maxY, maxZ} in world coordinates.
+     */
+    double[] getWorldBounds() {
+        double[] offset = getWorldOffset();
+        return new double[]{
+                this.bounds[0] + offset[0], this.bounds[1] + offset[1], this.bounds[2],
+                this.bounds[3] + offset[0], this.bounds[4] + offset[1], this.bounds[5]
+        };
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    int getVertexCount() {
+        return vertexCount;
+    }
+
+    int getFaceCount() {
+        return faceCount;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    String getHash() {
+        return hash;
+    }
+
+    int getOriginX() {
+        return originX;
+    }
+
+    int getOriginY() {
+        return originY;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+}
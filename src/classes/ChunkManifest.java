@@ -0,0 +1,114 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import gui.App;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * A JSON index of the chunk files written by a generation run. For each chunk it lists the area of the input image
+ * it covers, the offset that places it in the city, its world-space bounding box, its vertex and face counts, and the
+ * size and SHA-256 hash of its file, so that viewers can page in only the chunks they need.
+ */
+class ChunkManifest {
+    static final String MANIFEST_FILE = "city_manifest.json";
+    private final ArrayList<ChunkInfo> chunks = new ArrayList<>();
+
+    void add(ChunkInfo chunk) {
+        this.chunks.add(chunk);
+    }
+
+    /**
+     * @return the number of triangles in every chunk.
+     */
+    long getFaceCount() {
+        long faces = 0;
+        for (ChunkInfo c : this.chunks)
+            faces += c.getFaceCount();
+        return faces;
+    }
+
+    /**
+     * @return the size of every chunk file in bytes.
+     */
+    long getBytes() {
+        long bytes = 0;
+        for (ChunkInfo c : this.chunks)
+            bytes += c.getBytes();
+        return bytes;
+    }
+
+    /**
+     * Writes the manifest, replacing the file only once the new manifest is complete.
+     * @param file is the file to write to.
+     */
+    void write(File file) throws IOException {
+        File part = new File(file.getPath() + RunJournal.PART_SUFFIX);
+        try {
+            writeJson(part);
+            RunJournal.commit(part, file);
+        } finally {
+            // Gone once renamed into place, left over only if writing failed
+            part.delete();
+        }
+    }
+
+    private void writeJson(File part) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(part), StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"format\": \"" + App.format.getExtension() + "\",\n");
+            out.write("  \"scale\": " + App.scale + ",\n");
+            out.write("  \"sectionSize\": " + Grid.SECTION_SIZE + ",\n");
+            out.write("  \"chunks\": [");
+            for (int i = 0; i < this.chunks.size(); i++) {
+                ChunkInfo c = this.chunks.get(i);
+                out.write(i == 0 ? "\n" : ",\n");
+                out.write("    {\n");
+                out.write("      \"index\": " + c.getIndex() + ",\n");
+                out.write("      \"file\": \"" + c.getFileName() + "\",\n");
+                out.write("      \"origin\": [" + c.getOriginX() + ", " + c.getOriginY() + "],\n");
+                out.write("      \"size\": [" + c.getWidth() + ", " + c.getHeight() + "],\n");
+                out.write("      \"offset\": " + toJson(c.getWorldOffset()) + ",\n");
+                out.write("      \"bounds\": " + toJson(c.getWorldBounds()) + ",\n");
+                out.write("      \"vertices\": " + c.getVertexCount() + ",\n");
+                out.write("      \"faces\": " + c.getFaceCount() + ",\n");
+                out.write("      \"bytes\": " + c.getBytes() + ",\n");
+                out.write("      \"sha256\": \"" + c.getHash() + "\"\n");
+                out.write("    }");
+            }
+            out.write("\n  ]\n}\n");
+        }
+    }
+
+    private static String toJson(double[] values) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(String.format(Locale.ROOT, "%.4f", values[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads back the chunk files written by the generator, whether or not they were compressed. Compressed files are
+ * recognized by the gzip magic number rather than by their name.
+ */
+public class ChunkReader {
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private ChunkReader() {
+    }
+
+    /**
+     * Opens a chunk file for reading, decompressing it if it is gzipped.
+     * @param file is the chunk file.
+     * @return a stream of the uncompressed contents of the file.
+     */
+    public static InputStream open(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        in.mark(2);
+        int magic = in.read() | (in.read() << 8);
+        in.reset();
+        if (magic == GZIP_MAGIC)
+            return new GZIPInputStream(in, 64 * 1024);
+        return in;
+    }
+
+    /**
+     * Reads a chunk written in the OFF format.
+     * @param file is the chunk file, compressed or not.
+     * @return the chunk's mesh.
+     */
+    static Prototype readOff(File file) throws IOException {
+        try (InputStream in = open(file)) {
+            return OffReader.read(file, ByteBuffer.wrap(in.readAllBytes()));
+        }
+    }
+
+    /**
+     * Decompresses a chunk file to standard output, for use by tools that do not read gzip.
+     * @param args holds the chunk file to read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: ChunkReader <chunk file>");
+            return;
+        }
+        try (InputStream in = open(new File(args[0]))) {
+            in.transferTo(System.out);
+        }
+        System.out.flush();
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import gui.App;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static classes.MeshLibrary.NUM_SHAPE_TYPES;
+import static classes.MeshLibrary.NUM_STORIES;
+
+/**
+ * Predicts the size of a generation run without building any geometry. The Blocks of every chunk are laid out as
+ * they would be for generation, and the sizes of the prototypes they would use are read from the library metadata.
+ */
+class CostEstimator {
+    // Rough generation speed with the default settings, used to estimate run time
+    private static final double TRIANGLES_PER_SECOND = 2500000;
+    // Typical size of gzipped text and binary chunks relative to the uncompressed files
+    private static final double TEXT_COMPRESSION_RATIO = 0.25;
+    private static final double BINARY_COMPRESSION_RATIO = 0.6;
+    private final ArrayList<int[]> chunkBounds;
+    // Number of buildings of each [shape type][number of stories] in each chunk
+    private final int[][][] buildings;
+    // Number of ground tiles in each chunk
+    private final int[] tiles;
+    // The {vertex, triangle} counts of the roads of each chunk
+    private final int[][] roads;
+
+    /**
+     * Lays out the Blocks of every chunk of an image.
+     * @param image is the input image.
+     * @param chunkBounds holds the {x, y, width, height} of each chunk.
+     * @param collider leaves out overlapping buildings, or is null to keep every building.
+     */
+    CostEstimator(BufferedImage image, ArrayList<int[]> chunkBounds, FootprintCollider collider) {
+        this.chunkBounds = chunkBounds;
+        this.buildings = new int[chunkBounds.size()][NUM_SHAPE_TYPES][NUM_STORIES];
+        this.tiles = new int[chunkBounds.size()];
+        this.roads = new int[chunkBounds.size()][2];
+        for (int num = 0; num < chunkBounds.size(); num++)
+            layOut(image, num, collider);
+    }
+
+    /**
+     * Lays out the Blocks of one chunk again after its pixels have changed, counting every building.
+     * @param image is the new input image, the same size as before.
+     * @param num is the number of the chunk.
+     */
+    void update(BufferedImage image, int num) {
+        for (int[] counts : this.buildings[num])
+            Arrays.fill(counts, 0);
+        this.roads[num] = new int[2];
+        layOut(image, num, null);
+    }
+
+    private void layOut(BufferedImage image, int num, FootprintCollider collider) {
+        int[] bounds = this.chunkBounds.get(num);
+        PixelBunch bunch = new PixelBunch(image.getSubimage(bounds[0], bounds[1], bounds[2], bounds[3]));
+        this.tiles[num] = bunch.getWidth() * bunch.getHeight();
+        Block[][] blocks = Grid.createBlocks(bunch);
+        if (collider != null)
+            collider.apply(blocks, bounds[0], bounds[1]);
+        if (App.generateRoads) {
+            RoadNetwork roads = new RoadNetwork(blocks, bunch.getWidth(), bunch.getHeight());
+            this.roads[num] = new int[]{roads.getVertexCount(), roads.getFaceCount()};
+            // Roads take the place of the ground under them
+            this.tiles[num] -= roads.getRoadPixelCount();
+        }
+        for (Block[] column : blocks) {
+            for (Block block : column) {
+                for (int x = 0; x < Block.SIZE; x++) {
+                    for (int y = 0; y < Block.SIZE; y++) {
+                        if (block.isEnabled(x, y))
+                            this.buildings[num][block.getBuilding(x, y).getShapeType()][block.getNumStories()]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param num is the number of the chunk.
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed.
+     * @return the {vertex, triangle} counts of the chunk.
+     */
+    long[] getCounts(int num, int storyCap) {
+        long[] counts = getBuildingCounts(num, storyCap);
+        // Every ground tile is 2 triangles over 4 vertices
+        counts[0] += 4L * this.tiles[num] + this.roads[num][0];
+        counts[1] += 2L * this.tiles[num] + this.roads[num][1];
+        return counts;
+    }
+
+    /**
+     * @param num is the number of the chunk.
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed.
+     * @return the {vertex, triangle} counts of the buildings of the chunk, before any hidden faces are culled.
+     */
+    long[] getBuildingCounts(int num, int storyCap) {
+        long vertices = 0;
+        long faces = 0;
+        for (int shapeType = 0; shapeType < NUM_SHAPE_TYPES; shapeType++) {
+            for (int numStories = 0; numStories < NUM_STORIES; numStories++) {
+                int count = this.buildings[num][shapeType][numStories];
+                if (count == 0)
+                    continue;
+                PrototypeInfo info = MeshLibrary.getInfo(shapeType, Math.min(numStories, storyCap));
+                vertices += (long) count * info.getVertexCount();
+                faces += (long) count * info.getFaceCount();
+            }
+        }
+        return new long[]{vertices, faces};
+    }
+
+    /**
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed.
+     * @return the number of triangles in the whole run.
+     */
+    long getTotalFaces(int storyCap) {
+        long faces = 0;
+        for (int num = 0; num < this.chunkBounds.size(); num++)
+            faces += getCounts(num, storyCap)[1];
+        return faces;
+    }
+
+    /**
+     * Finds the tallest buildings that keep the run within a triangle budget. If even single story buildings go over
+     * the budget, they are used anyway and a warning is printed.
+     * @param budget is the highest number of triangles allowed.
+     * @return the highest number of stories (0-9) buildings should be allowed.
+     */
+    int getStoryCap(long budget) {
+        for (int storyCap = NUM_STORIES - 1; storyCap > 0; storyCap--) {
+            if (getTotalFaces(storyCap) <= budget)
+                return storyCap;
+        }
+        if (getTotalFaces(0) > budget)
+            Main.print("Warning: the map needs " + getTotalFaces(0) + " triangles even with single story buildings");
+        return 0;
+    }
+
+    /**
+     * Estimates the size of a chunk file in the format chosen by App.format.
+     * @param vertices is the number of vertices in the chunk.
+     * @param faces is the number of triangles in the chunk.
+     * @return the approximate number of bytes.
+     */
+    static long estimateBytes(long vertices, long faces) {
+        // Digits of the largest vertex index plus a separator
+        long indexBytes = String.valueOf(Math.max(vertices - 1, 0)).length() + 1;
+        // Sign, up to 3 integer digits, the point, the decimals and a separator
+        long coordinateBytes = App.precision + 6;
+        long bytes;
+        switch (App.format) {
+            case OBJ:
+                bytes = vertices * (2 + 3 * coordinateBytes) + faces * (2 + 3 * indexBytes);
+                break;
+            case PLY:
+                bytes = 250 + vertices * 12 + faces * 13;
+                break;
+            case STL:
+                bytes = 84 + faces * 50;
+                break;
+            case OFF:
+            default:
+                bytes = 20 + vertices * 3 * coordinateBytes + faces * (2 + 3 * indexBytes);
+                break;
+        }
+        if (App.compressOutput) {
+            boolean text = App.format == MeshFormat.OFF || App.format == MeshFormat.OBJ;
+            bytes = (long) (bytes * (text ? TEXT_COMPRESSION_RATIO : BINARY_COMPRESSION_RATIO));
+        }
+        return bytes;
+    }
+
+    /**
+     * Prints the estimate for every chunk and for the whole run.
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed.
+     */
+    void print(int storyCap) {
+        long totalVertices = 0, totalFaces = 0, totalBytes = 0;
+        for (int num = 0; num < this.chunkBounds.size(); num++) {
+            long[] counts = getCounts(num, storyCap);
+            long bytes = estimateBytes(counts[0], counts[1]);
+            Main.print(String.format(Locale.ROOT, "Chunk %d: %,d vertices, %,d triangles, ~%s, ~%.1fs",
+                    num, counts[0], counts[1], formatBytes(bytes), counts[1] / TRIANGLES_PER_SECOND));
+            totalVertices += counts[0];
+            totalFaces += counts[1];
+            totalBytes += bytes;
+        }
+        Main.print(String.format(Locale.ROOT, "Estimated total: %,d vertices, %,d triangles, ~%s, ~%.1fs",
+                totalVertices, totalFaces, formatBytes(totalBytes), totalFaces / TRIANGLES_PER_SECOND));
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024)
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        if (bytes < 1024L * 1024 * 1024)
+            return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+        return String.format(Locale.ROOT, "%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+/**
+ * A mesh stored outside the Java heap, so that large cities do not fill the heap with geometry. Vertices and faces
+ * each live in an OffHeapStore that is freed when the mesh is closed.
+ */
+class DirectMeshBuffer extends MeshBuffer {
+    private static final int INITIAL_CAPACITY = 1024;
+    // Bytes used by one vertex (3 doubles) and one face (3 ints)
+    private static final int VERTEX_SIZE = 24;
+    private static final int FACE_SIZE = 12;
+    private final OffHeapStore vertices = new OffHeapStore(INITIAL_CAPACITY * VERTEX_SIZE);
+    private final OffHeapStore faces = new OffHeapStore(INITIAL_CAPACITY * FACE_SIZE);
+    private int vertexCount, faceCount;
+
+    @Override
+    int addVertex(double x, double y, double z) {
+        // Checked as a long, so that a mesh too large for a buffer fails instead of overflowing
+        this.vertices.ensureCapacity((long) (this.vertexCount + 1) * VERTEX_SIZE);
+        int i = this.vertexCount * VERTEX_SIZE;
+        this.vertices.buffer()
+                .putDouble(i, x)
+                .putDouble(i + 8, y)
+                .putDouble(i + 16, z);
+        return this.vertexCount++;
+    }
+
+    @Override
+    void setVertex(int v, double x, double y, double z) {
+        int i = v * VERTEX_SIZE;
+        this.vertices.buffer()
+                .putDouble(i, x)
+                .putDouble(i + 8, y)
+                .putDouble(i + 16, z);
+    }
+
+    @Override
+    void addFace(int a, int b, int c) {
+        this.faces.ensureCapacity((long) (this.faceCount + 1) * FACE_SIZE);
+        int i = this.faceCount * FACE_SIZE;
+        this.faces.buffer()
+                .putInt(i, a)
+                .putInt(i + 4, b)
+                .putInt(i + 8, c);
+        this.faceCount++;
+    }
+
+    @Override
+    void setFace(int f, int a, int b, int c) {
+        int i = f * FACE_SIZE;
+        this.faces.buffer()
+                .putInt(i, a)
+                .putInt(i + 4, b)
+                .putInt(i + 8, c);
+    }
+
+    @Override
+    void truncate(int vertexCount, int faceCount) {
+        this.vertexCount = Math.min(this.vertexCount, vertexCount);
+        this.faceCount = Math.min(this.faceCount, faceCount);
+    }
+
+    @Override
+    int getVertexCount() {
+        return this.vertexCount;
+    }
+
+    @Override
+    int getFaceCount() {
+        return this.faceCount;
+    }
+
+    @Override
+    double getX(int v) {
+        return this.vertices.buffer().getDouble(v * VERTEX_SIZE);
+    }
+
+    @Override
+    double getY(int v) {
+        return this.vertices.buffer().getDouble(v * VERTEX_SIZE + 8);
+    }
+
+    @Override
+    double getZ(int v) {
+        return this.vertices.buffer().getDouble(v * VERTEX_SIZE + 16);
+    }
+
+    @Override
+    int getFaceVertex(int f, int i) {
+        return this.faces.buffer().getInt(f * FACE_SIZE + i * 4);
+    }
+
+    @Override
+    public void close() {
+        this.vertices.close();
+        this.faces.close();
+    }
+}
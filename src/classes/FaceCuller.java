@@ -0,0 +1,417 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Finds faces that can never be seen: the floors of buildings that rest on the ground, and walls pressed flat
+ * against the wall of another building in the same Block.
+ */
+class FaceCuller {
+    // Distance under which two points are considered to touch
+    static final double EPSILON = 5e-4;
+
+    private FaceCuller() {
+    }
+
+    /**
+     * @param vertices are the packed vertex coordinates of a building mesh.
+     * @return the lowest z of the mesh, where its floor lies.
+     */
+    static float findBaseZ(FloatBuffer vertices) {
+        float minZ = Float.MAX_VALUE;
+        for (int c = 2; c < vertices.limit(); c += 3)
+            minZ = Math.min(minZ, vertices.get(c));
+        return minZ;
+    }
+
+    /**
+     * Removes the floor of a building mesh. The floor is only hidden where the building is placed on the ground.
+     * @param vertices are the packed vertex coordinates of the mesh.
+     * @param faces are the packed face indices of the mesh.
+     * @param minZ is the lowest z of the mesh, see findBaseZ().
+     * @return the packed indices of every face except those lying flat at the lowest z and facing down.
+     */
+    static int[] removeBase(FloatBuffer vertices, IntBuffer faces, float minZ) {
+        int[] kept = new int[faces.limit()];
+        int count = 0;
+        for (int f = 0; f < faces.limit(); f += 3) {
+            int a = faces.get(f) * 3, b = faces.get(f + 1) * 3, c = faces.get(f + 2) * 3;
+            boolean onBase = vertices.get(a + 2) - minZ < EPSILON && vertices.get(b + 2) - minZ < EPSILON
+                    && vertices.get(c + 2) - minZ < EPSILON;
+            // The z component of the face normal
+            double nz = (vertices.get(b) - vertices.get(a)) * (vertices.get(c + 1) - vertices.get(a + 1))
+                    - (vertices.get(b + 1) - vertices.get(a + 1)) * (vertices.get(c) - vertices.get(a));
+            if (onBase && nz < 0)
+                continue;
+            kept[count++] = faces.get(f);
+            kept[count++] = faces.get(f + 1);
+            kept[count++] = faces.get(f + 2);
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    /**
+     * Removes the faces of the buildings in a Block that are hidden by faces of the other buildings in the Block, then
+     * removes the vertices of the Block that no face uses any more. A face is hidden when the faces of other buildings
+     * that lie in its plane and point the opposite way cover all of it. Coverage is tested exactly: the part of the
+     * face under each such face is cut away, and the face is hidden if nothing wider than EPSILON is left. The
+     * buildings' vertices and faces must be the last of the mesh.
+     * @param m is the mesh holding the Block.
+     * @param vertexStart is the index of the first vertex of the Block.
+     * @param faceStarts holds the index of the first face of each building.
+     * @param count is the number of buildings in the Block.
+     * @return the number of faces removed.
+     */
+    static int cullBlock(MeshBuffer m, int vertexStart, int[] faceStarts, int count) {
+        if (count == 0)
+            return 0;
+        int first = faceStarts[0];
+        int end = m.getFaceCount();
+        int culled = 0;
+        if (count > 1) {
+            boolean[] hidden = new BlockFaces(m, first, end, faceStarts, count).findHidden();
+            // Compact the visible faces to the front of the Block's range
+            int next = first;
+            for (int f = first; f < end; f++) {
+                if (!hidden[f - first])
+                    m.setFace(next++, m.getFaceVertex(f, 0), m.getFaceVertex(f, 1), m.getFaceVertex(f, 2));
+            }
+            culled = end - next;
+            m.truncate(m.getVertexCount(), next);
+        }
+        removeUnusedVertices(m, vertexStart, first);
+        return culled;
+    }
+
+    /**
+     * Removes the vertices from vertexStart onwards that no face from faceStart onwards uses, keeping the order of the
+     * others and renumbering the faces to match.
+     */
+    private static void removeUnusedVertices(MeshBuffer m, int vertexStart, int faceStart) {
+        int end = m.getVertexCount();
+        int[] remap = new int[end - vertexStart];
+        Arrays.fill(remap, -1);
+        for (int f = faceStart; f < m.getFaceCount(); f++) {
+            for (int i = 0; i < 3; i++) {
+                int v = m.getFaceVertex(f, i);
+                if (v >= vertexStart)
+                    remap[v - vertexStart] = 0;
+            }
+        }
+        int next = vertexStart;
+        for (int v = vertexStart; v < end; v++) {
+            if (remap[v - vertexStart] < 0)
+                continue;
+            if (next != v)
+                m.setVertex(next, m.getX(v), m.getY(v), m.getZ(v));
+            remap[v - vertexStart] = next++;
+        }
+        if (next == end)
+            return;
+        for (int f = faceStart; f < m.getFaceCount(); f++) {
+            int a = m.getFaceVertex(f, 0), b = m.getFaceVertex(f, 1), c = m.getFaceVertex(f, 2);
+            m.setFace(f, a < vertexStart ? a : remap[a - vertexStart], b < vertexStart ? b : remap[b - vertexStart],
+                    c < vertexStart ? c : remap[c - vertexStart]);
+        }
+        m.truncate(next, m.getFaceCount());
+    }
+
+    /**
+     * The faces of the buildings of a Block, with their planes and bounds, indexed by a uniform grid of cells so that
+     * each face is only compared with the faces near it.
+     */
+    private static class BlockFaces {
+        // Most cells along any axis of the grid
+        private static final int MAX_CELLS = 32;
+        // Most pieces a face is cut into before it is assumed to be visible
+        private static final int MAX_PIECES = 64;
+        private final MeshBuffer m;
+        private final int first, count;
+        // Building of each face
+        private final int[] owner;
+        // Unit normal of each face, zero for faces without area, and the distance of its plane from the origin
+        private final double[] normals, offsets;
+        // Bounds {minX, minY, minZ, maxX, maxY, maxZ} of each face
+        private final double[] bounds;
+        private final double[] origin = new double[3];
+        private final int[] cells = new int[3];
+        private final double cellSize;
+        // Faces in each cell, as ranges of cellFaces
+        private final int[] cellStarts, cellFaces;
+
+        BlockFaces(MeshBuffer m, int first, int end, int[] faceStarts, int buildings) {
+            this.m = m;
+            this.first = first;
+            this.count = end - first;
+            this.owner = new int[count];
+            this.normals = new double[count * 3];
+            this.offsets = new double[count];
+            this.bounds = new double[count * 6];
+            double[] extent = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+                    -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+            for (int b = 0, j = 0; b < buildings; b++) {
+                for (int bEnd = (b + 1 < buildings ? faceStarts[b + 1] : end) - first; j < bEnd; j++) {
+                    owner[j] = b;
+                    measure(j);
+                    for (int i = 0; i < 3; i++) {
+                        extent[i] = Math.min(extent[i], bounds[j * 6 + i]);
+                        extent[i + 3] = Math.max(extent[i + 3], bounds[j * 6 + i + 3]);
+                    }
+                }
+            }
+            // Cubic cells, about as many as there are faces
+            double size = 0;
+            for (int i = 0; i < 3; i++) {
+                origin[i] = extent[i] - EPSILON;
+                size = Math.max(size, extent[i + 3] - extent[i] + 2 * EPSILON);
+            }
+            int perAxis = Math.max(1, Math.min(MAX_CELLS, (int) Math.ceil(Math.cbrt(count))));
+            this.cellSize = size / perAxis;
+            for (int i = 0; i < 3; i++)
+                cells[i] = Math.max(1, Math.min(perAxis, cell(i, extent[i + 3] + EPSILON) + 1));
+            this.cellStarts = new int[cells[0] * cells[1] * cells[2] + 1];
+            int[] range = new int[6];
+            for (int j = 0; j < count; j++) {
+                cellRange(j, range);
+                for (int x = range[0]; x <= range[3]; x++)
+                    for (int y = range[1]; y <= range[4]; y++)
+                        for (int z = range[2]; z <= range[5]; z++)
+                            cellStarts[index(x, y, z) + 1]++;
+            }
+            for (int c = 1; c < cellStarts.length; c++)
+                cellStarts[c] += cellStarts[c - 1];
+            this.cellFaces = new int[cellStarts[cellStarts.length - 1]];
+            int[] fill = Arrays.copyOf(cellStarts, cellStarts.length - 1);
+            for (int j = 0; j < count; j++) {
+                cellRange(j, range);
+                for (int x = range[0]; x <= range[3]; x++)
+                    for (int y = range[1]; y <= range[4]; y++)
+                        for (int z = range[2]; z <= range[5]; z++)
+                            cellFaces[fill[index(x, y, z)]++] = j;
+            }
+        }
+
+        private void measure(int j) {
+            int a = m.getFaceVertex(first + j, 0), b = m.getFaceVertex(first + j, 1), c = m.getFaceVertex(first + j, 2);
+            double ux = m.getX(b) - m.getX(a), uy = m.getY(b) - m.getY(a), uz = m.getZ(b) - m.getZ(a);
+            double wx = m.getX(c) - m.getX(a), wy = m.getY(c) - m.getY(a), wz = m.getZ(c) - m.getZ(a);
+            double nx = uy*wz - uz*wy, ny = uz*wx - ux*wz, nz = ux*wy - uy*wx;
+            double length = Math.sqrt(nx*nx + ny*ny + nz*nz);
+            if (length >= EPSILON * EPSILON) {
+                normals[j * 3] = nx / length;
+                normals[j * 3 + 1] = ny / length;
+                normals[j * 3 + 2] = nz / length;
+                offsets[j] = normals[j * 3] * m.getX(a) + normals[j * 3 + 1] * m.getY(a) + normals[j * 3 + 2] * m.getZ(a);
+            }
+            int o = j * 6;
+            bounds[o] = Math.min(m.getX(a), Math.min(m.getX(b), m.getX(c)));
+            bounds[o + 1] = Math.min(m.getY(a), Math.min(m.getY(b), m.getY(c)));
+            bounds[o + 2] = Math.min(m.getZ(a), Math.min(m.getZ(b), m.getZ(c)));
+            bounds[o + 3] = Math.max(m.getX(a), Math.max(m.getX(b), m.getX(c)));
+            bounds[o + 4] = Math.max(m.getY(a), Math.max(m.getY(b), m.getY(c)));
+            bounds[o + 5] = Math.max(m.getZ(a), Math.max(m.getZ(b), m.getZ(c)));
+        }
+
+        private int cell(int axis, double value) {
+            return (int) Math.floor((value - origin[axis]) / cellSize);
+        }
+
+        /**
+         * Finds the cells {minX, minY, minZ, maxX, maxY, maxZ} touched by the bounds of a face.
+         */
+        private void cellRange(int j, int[] range) {
+            for (int i = 0; i < 3; i++) {
+                range[i] = Math.max(0, Math.min(cells[i] - 1, cell(i, bounds[j * 6 + i] - EPSILON)));
+                range[i + 3] = Math.max(0, Math.min(cells[i] - 1, cell(i, bounds[j * 6 + i + 3] + EPSILON)));
+            }
+        }
+
+        private int index(int x, int y, int z) {
+            return (x * cells[1] + y) * cells[2] + z;
+        }
+
+        /**
+         * @return true for each face, in order, that is hidden by the faces of other buildings.
+         */
+        boolean[] findHidden() {
+            boolean[] hidden = new boolean[count];
+            // Face last collected for each face, so that a face found in several cells is collected once
+            int[] seen = new int[count];
+            Arrays.fill(seen, -1);
+            int[] covers = new int[16];
+            int[] range = new int[6];
+            for (int j = 0; j < count; j++) {
+                if (normals[j * 3] == 0 && normals[j * 3 + 1] == 0 && normals[j * 3 + 2] == 0)
+                    continue;
+                int found = 0;
+                cellRange(j, range);
+                for (int x = range[0]; x <= range[3]; x++) {
+                    for (int y = range[1]; y <= range[4]; y++) {
+                        for (int z = range[2]; z <= range[5]; z++) {
+                            int c = index(x, y, z);
+                            for (int e = cellStarts[c]; e < cellStarts[c + 1]; e++) {
+                                int g = cellFaces[e];
+                                if (seen[g] == j || owner[g] == owner[j])
+                                    continue;
+                                seen[g] = j;
+                                if (!faces(j, g))
+                                    continue;
+                                if (found == covers.length)
+                                    covers = Arrays.copyOf(covers, found * 2);
+                                covers[found++] = g;
+                            }
+                        }
+                    }
+                }
+                hidden[j] = found > 0 && isCovered(j, covers, found);
+            }
+            return hidden;
+        }
+
+        /**
+         * @return true if face g lies in the plane of face j, points the opposite way and their bounds meet.
+         */
+        private boolean faces(int j, int g) {
+            double dot = normals[j * 3] * normals[g * 3] + normals[j * 3 + 1] * normals[g * 3 + 1]
+                    + normals[j * 3 + 2] * normals[g * 3 + 2];
+            if (dot > EPSILON - 1 || Math.abs(offsets[j] + offsets[g]) > EPSILON)
+                return false;
+            for (int i = 0; i < 3; i++) {
+                if (bounds[j * 6 + i] > bounds[g * 6 + i + 3] + EPSILON || bounds[g * 6 + i] > bounds[j * 6 + i + 3] + EPSILON)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Cuts the parts under the covering faces away from face j, in the plane of j seen from the side it faces.
+         * @return true if what is left of the face is narrower than EPSILON.
+         */
+        private boolean isCovered(int j, int[] covers, int found) {
+            // Drop the axis the face is most nearly perpendicular to
+            int drop = 0;
+            for (int i = 1; i < 3; i++)
+                if (Math.abs(normals[j * 3 + i]) > Math.abs(normals[j * 3 + drop]))
+                    drop = i;
+            double[] face = project(first + j, drop);
+            double perimeter = 0;
+            for (int i = 0; i < 3; i++)
+                perimeter += Math.hypot(face[(i + 1) % 3 * 2] - face[i * 2], face[(i + 1) % 3 * 2 + 1] - face[i * 2 + 1]);
+            ArrayList<double[]> pieces = new ArrayList<>();
+            pieces.add(face);
+            for (int k = 0; k < found && !pieces.isEmpty(); k++) {
+                double[] cover = project(first + covers[k], drop);
+                ArrayList<double[]> left = new ArrayList<>();
+                for (double[] piece : pieces)
+                    subtract(piece, cover, left);
+                if (left.size() > MAX_PIECES)
+                    return false;
+                pieces = left;
+            }
+            double area = 0;
+            for (double[] piece : pieces)
+                area += signedArea(piece, piece.length / 2);
+            return area <= EPSILON * perimeter;
+        }
+
+        /**
+         * @return the packed corners of a face without the dropped axis, in counter-clockwise order.
+         */
+        private double[] project(int f, int drop) {
+            double[] corners = new double[6];
+            for (int i = 0; i < 3; i++) {
+                int v = m.getFaceVertex(f, i);
+                corners[i * 2] = drop == 0 ? m.getY(v) : m.getX(v);
+                corners[i * 2 + 1] = drop == 2 ? m.getY(v) : m.getZ(v);
+            }
+            if (signedArea(corners, 3) < 0) {
+                double x = corners[2], y = corners[3];
+                corners[2] = corners[4];
+                corners[3] = corners[5];
+                corners[4] = x;
+                corners[5] = y;
+            }
+            return corners;
+        }
+    }
+
+    /**
+     * Adds the parts of a convex polygon outside a counter-clockwise triangle to a list, as convex polygons. The part
+     * beyond each edge of the triangle is cut off in turn, and what is left inside every edge is dropped.
+     * @param piece holds the packed corners of the polygon in counter-clockwise order.
+     * @param triangle holds the packed corners of the triangle.
+     * @param out is the list to add to.
+     */
+    private static void subtract(double[] piece, double[] triangle, ArrayList<double[]> out) {
+        double[] inside = piece;
+        for (int e = 0; e < 3 && inside.length > 0; e++) {
+            double ax = triangle[e * 2], ay = triangle[e * 2 + 1];
+            double bx = triangle[(e + 1) % 3 * 2], by = triangle[(e + 1) % 3 * 2 + 1];
+            double[] outside = clip(inside, ax, ay, bx, by, -1);
+            if (outside.length >= 6 && signedArea(outside, outside.length / 2) > EPSILON * EPSILON)
+                out.add(outside);
+            inside = clip(inside, ax, ay, bx, by, 1);
+        }
+    }
+
+    /**
+     * Clips a convex polygon to one side of the line through a and b.
+     * @param side is 1 to keep the left of the line, -1 to keep the right.
+     * @return the packed corners of the clipped polygon, none if nothing is left.
+     */
+    private static double[] clip(double[] polygon, double ax, double ay, double bx, double by, int side) {
+        int n = polygon.length / 2;
+        double[] clipped = new double[(n + 1) * 2];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int next = (i + 1) % n;
+            double px = polygon[i * 2], py = polygon[i * 2 + 1];
+            double qx = polygon[next * 2], qy = polygon[next * 2 + 1];
+            double sp = side * ((bx - ax) * (py - ay) - (by - ay) * (px - ax));
+            double sq = side * ((bx - ax) * (qy - ay) - (by - ay) * (qx - ax));
+            if (sp >= 0) {
+                clipped[count * 2] = px;
+                clipped[count * 2 + 1] = py;
+                count++;
+            }
+            if ((sp < 0 && sq > 0) || (sp > 0 && sq < 0)) {
+                double t = sp / (sp - sq);
+                clipped[count * 2] = px + t * (qx - px);
+                clipped[count * 2 + 1] = py + t * (qy - py);
+                count++;
+            }
+        }
+        return count < 3 ? new double[0] : Arrays.copyOf(clipped, count * 2);
+    }
+
+    /**
+     * @return the area of a polygon, positive if its corners are in counter-clockwise order.
+     */
+    private static double signedArea(double[] polygon, int n) {
+        double area = 0;
+        for (int i = 0; i < n; i++) {
+            int next = (i + 1) % n;
+            area += polygon[i * 2] * polygon[next * 2 + 1] - polygon[next * 2] * polygon[i * 2 + 1];
+        }
+        return area / 2;
+    }
+}
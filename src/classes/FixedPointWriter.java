@@ -0,0 +1,158 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A buffered ASCII writer for mesh text formats. Numbers are written digit by digit straight into a reusable byte
+ * buffer, so no Strings are created while writing vertices and faces. Decimals are written with a fixed number of
+ * digits after the point (3 digits = millimetre precision).
+ */
+class FixedPointWriter implements Closeable {
+    static final int MAX_PRECISION = 9;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] digits = new byte[20];
+    private final int precision;
+    private final long unit;
+    private final double maxFixed;
+    private int count;
+
+    /**
+     * Creates a writer that formats decimals with the given number of digits after the point.
+     * @param out is the stream to write to.
+     * @param precision is the number of decimal places to write (0-9).
+     */
+    FixedPointWriter(OutputStream out, int precision) {
+        if (precision < 0 || precision > MAX_PRECISION)
+            throw new IllegalArgumentException("Precision must be between 0 and " + MAX_PRECISION + ": " + precision);
+        this.out = out;
+        this.precision = precision;
+        this.unit = POWERS_OF_TEN[precision];
+        this.maxFixed = (double) Long.MAX_VALUE / this.unit;
+    }
+
+    /**
+     * Writes a decimal rounded to the writer's precision, e.g. 1.5 -> "1.500" with a precision of 3.
+     * @param value is the number to write.
+     */
+    void writeFixed(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= this.maxFixed) {
+            // Out of range for fixed point, fall back to the general purpose path
+            writeAscii(String.valueOf(value));
+            return;
+        }
+        long scaled = Math.round(Math.abs(value) * this.unit);
+        // Values that round to zero are written without a sign
+        if (value < 0 && scaled != 0)
+            writeByte('-');
+        writeLong(scaled / this.unit);
+        if (this.precision > 0) {
+            writeByte('.');
+            long fraction = scaled % this.unit;
+            ensureCapacity(this.precision);
+            for (int i = this.count + this.precision - 1; i >= this.count; i--) {
+                this.buffer[i] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            this.count += this.precision;
+        }
+    }
+
+    /**
+     * Writes an integer in base 10.
+     * @param value is the number to write.
+     */
+    void writeInt(int value) throws IOException {
+        writeLong(value);
+    }
+
+    /**
+     * Writes a long in base 10.
+     * @param value is the number to write.
+     */
+    void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(String.valueOf(value));
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int n = 0;
+        do {
+            this.digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        ensureCapacity(n);
+        while (n > 0)
+            this.buffer[this.count++] = this.digits[--n];
+    }
+
+    /**
+     * Writes a single ASCII character.
+     * @param c is the character to write.
+     */
+    void writeByte(char c) throws IOException {
+        ensureCapacity(1);
+        this.buffer[this.count++] = (byte) c;
+    }
+
+    /**
+     * Writes a string of ASCII characters, used for headers and keywords.
+     * @param s is the string to write.
+     */
+    void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            writeByte(s.charAt(i));
+    }
+
+    private void ensureCapacity(int n) throws IOException {
+        if (this.count + n > this.buffer.length)
+            flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (this.count > 0) {
+            this.out.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
+
+    void flush() throws IOException {
+        flushBuffer();
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            this.out.close();
+        }
+    }
+}
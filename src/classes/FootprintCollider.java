@@ -0,0 +1,359 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+import static classes.Grid.SECTION_SIZE;
+
+/**
+ * Finds buildings whose footprints overlap anywhere in the image, including across Block and chunk boundaries, and
+ * decides which of them to leave out. Each footprint is the oriented bounding box of its prototype's outline, read from
+ * the library metadata and placed the same way Grid.place() places the mesh. Footprints are indexed in a uniform hash grid so that each building is
+ * only tested against its neighbours.
+ *
+ * Buildings are visited in the order they are generated and a building is left out if it overlaps one that has
+ * already been kept, so the result only depends on the input image. Every footprint is kept in the hash grid, left
+ * out or not, so that update() can decide again only the buildings an edit to the image can reach.
+ */
+class FootprintCollider {
+    // Footprints may overlap by this much, so that buildings sharing a wall are not reported as colliding
+    private static final double TOLERANCE = 0.001;
+    private static final int SLOTS = Block.SIZE * Block.SIZE;
+    private final int height;
+    private final int storyCap;
+    // Slots of the image whose building is left out, see index()
+    private final BitSet removed = new BitSet();
+    private int collisions;
+    // Footprints: slot, centre, half extents, the direction of the first axis and whether the building is kept
+    private int[] slot = new int[64];
+    private double[] centerX = new double[64], centerY = new double[64];
+    private double[] halfX = new double[64], halfY = new double[64];
+    private double[] cos = new double[64], sin = new double[64];
+    private boolean[] kept = new boolean[64];
+    private int footprintCount;
+    // Footprints no slot uses any more, to be used again
+    private final ArrayDeque<Integer> free = new ArrayDeque<>();
+    // Footprint of each slot that has one
+    private final HashMap<Integer, Integer> footprints = new HashMap<>();
+    // Footprints in each cell of the hash grid
+    private final HashMap<Long, ArrayList<Integer>> cells = new HashMap<>();
+    private final double cellSize;
+
+    /**
+     * Lays out the Blocks of a whole image and resolves the collisions between their buildings.
+     * @param image is the input image.
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed, as their footprints depend on it.
+     */
+    FootprintCollider(BufferedImage image, int storyCap) {
+        PixelBunch bunch = new PixelBunch(image);
+        this.height = bunch.getHeight();
+        this.storyCap = storyCap;
+        this.cellSize = SECTION_SIZE * App.scale;
+        for (Block[] column : Grid.createBlocks(bunch)) {
+            for (Block block : column) {
+                for (int x = 0; x < Block.SIZE; x++) {
+                    for (int y = 0; y < Block.SIZE; y++) {
+                        if (!block.isEnabled(x, y))
+                            continue;
+                        int f = add(block, 0, 0, x, y);
+                        if (f < 0)
+                            continue;
+                        if (collides(f)) {
+                            this.removed.set(this.slot[f]);
+                            this.collisions++;
+                        } else {
+                            this.kept[f] = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves the collisions again after some Blocks of the image have changed. The buildings of the changed Blocks
+     * are placed again, and a building after them in generation order is decided again only when a footprint it
+     * overlaps changes or is kept or left out differently, so the work follows the reach of the edit rather than the
+     * size of the image. The result is the same as resolving the collisions of the new image from scratch.
+     * @param image is the new input image, the same size as before.
+     * @param dirty is true for each changed Block of the image. It is set for every Block whose buildings are kept or
+     * left out differently.
+     */
+    void update(BufferedImage image, boolean[][] dirty) {
+        int minI = Integer.MAX_VALUE, minK = Integer.MAX_VALUE, maxI = -1, maxK = -1;
+        for (int i = 0; i < dirty.length; i++) {
+            for (int k = 0; k < dirty[i].length; k++) {
+                if (dirty[i][k]) {
+                    minI = Math.min(minI, i);
+                    maxI = Math.max(maxI, i);
+                    minK = Math.min(minK, k);
+                    maxK = Math.max(maxK, k);
+                }
+            }
+        }
+        if (maxI < 0)
+            return;
+        // Lay out only the Blocks around the changed ones
+        int originX = minI * App.scale, originY = minK * App.scale;
+        int width = Math.min((maxI + 1) * App.scale, image.getWidth()) - originX;
+        int height = Math.min((maxK + 1) * App.scale, image.getHeight()) - originY;
+        Block[][] blocks = Grid.createBlocks(new PixelBunch(image.getSubimage(originX, originY, width, height)));
+
+        // Slots to decide again, in generation order
+        TreeSet<Integer> queue = new TreeSet<>();
+        for (Block[] column : blocks) {
+            for (Block block : column) {
+                if (!dirty[(originX + block.getX()) / App.scale][(originY + block.getY()) / App.scale])
+                    continue;
+                for (int x = 0; x < Block.SIZE; x++) {
+                    for (int y = 0; y < Block.SIZE; y++) {
+                        int s = index(originX + block.getX(), originY + block.getY(), x, y);
+                        Integer old = this.footprints.remove(s);
+                        if (old != null) {
+                            if (this.kept[old])
+                                queueLater(old, queue);
+                            remove(old);
+                        }
+                        if (this.removed.get(s)) {
+                            this.removed.clear(s);
+                            this.collisions--;
+                        }
+                        if (block.isEnabled(x, y) && add(block, originX, originY, x, y) >= 0)
+                            queue.add(s);
+                    }
+                }
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            int s = queue.pollFirst();
+            Integer f = this.footprints.get(s);
+            if (f == null)
+                continue;
+            boolean keep = !collides(f);
+            // A new footprint is neither kept nor left out yet
+            boolean decided = this.kept[f] || this.removed.get(s);
+            if (decided && keep == this.kept[f])
+                continue;
+            if (keep != this.kept[f]) {
+                this.kept[f] = keep;
+                queueLater(f, queue);
+            }
+            if (this.removed.get(s) == keep) {
+                this.removed.set(s, !keep);
+                this.collisions += keep ? -1 : 1;
+                int pixel = s / SLOTS;
+                dirty[pixel / this.height / App.scale][pixel % this.height / App.scale] = true;
+            }
+        }
+    }
+
+    /**
+     * Leaves out the buildings of a chunk's Blocks that collide with others.
+     * @param blocks are the Blocks of the chunk.
+     * @param originX is the x coordinate of the chunk in the image.
+     * @param originY is the y coordinate of the chunk in the image.
+     */
+    void apply(Block[][] blocks, int originX, int originY) {
+        for (Block[] column : blocks) {
+            for (Block block : column) {
+                for (int x = 0; x < Block.SIZE; x++) {
+                    for (int y = 0; y < Block.SIZE; y++) {
+                        if (this.removed.get(index(originX + block.getX(), originY + block.getY(), x, y)))
+                            block.disable(x, y);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of buildings left out.
+     */
+    int getCollisionCount() {
+        return this.collisions;
+    }
+
+    /**
+     * @return the highest number of stories (0-9) buildings are allowed, which the footprints were placed for.
+     */
+    int getStoryCap() {
+        return this.storyCap;
+    }
+
+    private int index(int pixelX, int pixelY, int x, int y) {
+        return (pixelX * this.height + pixelY) * SLOTS + x * Block.SIZE + y;
+    }
+
+    /**
+     * Places the footprint of a building and adds it to the hash grid, neither kept nor left out.
+     * @param originX is the x coordinate in the image of the pixels the Block was created from.
+     * @param originY is the y coordinate in the image of the pixels the Block was created from.
+     * @return the footprint, or -1 if the prototype has no outline and can never collide.
+     */
+    private int add(Block block, int originX, int originY, int x, int y) {
+        Building building = block.getBuilding(x, y);
+        float[] footprint = MeshLibrary.getInfo(building.getShapeType(), Math.min(block.getNumStories(), this.storyCap))
+                .getFootprint();
+        if (footprint.length == 0)
+            return -1;
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int c = 0; c < footprint.length; c += 2) {
+            minX = Math.min(minX, footprint[c]);
+            maxX = Math.max(maxX, footprint[c]);
+            minY = Math.min(minY, footprint[c + 1]);
+            maxY = Math.max(maxY, footprint[c + 1]);
+        }
+        double scale = App.scale;
+        double cosT = Math.cos(Math.toRadians(building.getAngle()));
+        double sinT = Math.sin(Math.toRadians(building.getAngle()));
+        double lx = (minX + maxX) / 2 * scale, ly = (minY + maxY) / 2 * scale;
+        int pixelX = originX + block.getX(), pixelY = originY + block.getY();
+        double cx = lx*cosT - ly*sinT + SECTION_SIZE*pixelX + building.getOffset()[0];
+        double cy = lx*sinT + ly*cosT - (SECTION_SIZE*pixelY + building.getOffset()[1]);
+        double hx = (maxX - minX) / 2 * scale, hy = (maxY - minY) / 2 * scale;
+
+        int f = this.free.isEmpty() ? grow() : this.free.pop();
+        this.slot[f] = index(pixelX, pixelY, x, y);
+        this.centerX[f] = cx;
+        this.centerY[f] = cy;
+        this.halfX[f] = hx;
+        this.halfY[f] = hy;
+        this.cos[f] = cosT;
+        this.sin[f] = sinT;
+        this.kept[f] = false;
+        this.footprints.put(this.slot[f], f);
+        int[] range = getCells(f);
+        for (int i = range[0]; i <= range[1]; i++)
+            for (int k = range[2]; k <= range[3]; k++)
+                this.cells.computeIfAbsent(key(i, k), c -> new ArrayList<>(4)).add(f);
+        return f;
+    }
+
+    /**
+     * Takes a footprint out of the hash grid so that it can be used again.
+     */
+    private void remove(int f) {
+        int[] range = getCells(f);
+        for (int i = range[0]; i <= range[1]; i++) {
+            for (int k = range[2]; k <= range[3]; k++) {
+                ArrayList<Integer> cell = this.cells.get(key(i, k));
+                cell.remove(Integer.valueOf(f));
+                if (cell.isEmpty())
+                    this.cells.remove(key(i, k));
+            }
+        }
+        this.kept[f] = false;
+        this.free.push(f);
+    }
+
+    /**
+     * @return true if a footprint overlaps a kept footprint of a building generated before it.
+     */
+    private boolean collides(int f) {
+        int[] range = getCells(f);
+        for (int i = range[0]; i <= range[1]; i++) {
+            for (int k = range[2]; k <= range[3]; k++) {
+                ArrayList<Integer> cell = this.cells.get(key(i, k));
+                for (int other : cell) {
+                    if (this.kept[other] && this.slot[other] < this.slot[f] && overlaps(f, other))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the slots of the buildings generated after a footprint's building whose footprints overlap it.
+     */
+    private void queueLater(int f, TreeSet<Integer> queue) {
+        int[] range = getCells(f);
+        for (int i = range[0]; i <= range[1]; i++) {
+            for (int k = range[2]; k <= range[3]; k++) {
+                ArrayList<Integer> cell = this.cells.get(key(i, k));
+                for (int other : cell) {
+                    if (this.slot[other] > this.slot[f] && overlaps(other, f))
+                        queue.add(this.slot[other]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the first and last cells {x0, x1, y0, y1} covered by the axis aligned bounds of a footprint.
+     */
+    private int[] getCells(int f) {
+        double extentX = this.halfX[f] * Math.abs(this.cos[f]) + this.halfY[f] * Math.abs(this.sin[f]);
+        double extentY = this.halfX[f] * Math.abs(this.sin[f]) + this.halfY[f] * Math.abs(this.cos[f]);
+        return new int[]{(int) Math.floor((this.centerX[f] - extentX) / this.cellSize),
+                (int) Math.floor((this.centerX[f] + extentX) / this.cellSize),
+                (int) Math.floor((this.centerY[f] - extentY) / this.cellSize),
+                (int) Math.floor((this.centerY[f] + extentY) / this.cellSize)};
+    }
+
+    /**
+     * Tests two oriented boxes for overlap with the separating axis theorem, using the two axes of each box.
+     */
+    private boolean overlaps(int a, int b) {
+        double dx = this.centerX[b] - this.centerX[a], dy = this.centerY[b] - this.centerY[a];
+        double[][] axes = {{this.cos[a], this.sin[a]}, {-this.sin[a], this.cos[a]},
+                {this.cos[b], this.sin[b]}, {-this.sin[b], this.cos[b]}};
+        for (double[] axis : axes) {
+            double distance = Math.abs(dx * axis[0] + dy * axis[1]);
+            double radiusA = this.halfX[a] * Math.abs(this.cos[a] * axis[0] + this.sin[a] * axis[1])
+                    + this.halfY[a] * Math.abs(-this.sin[a] * axis[0] + this.cos[a] * axis[1]);
+            double radiusB = this.halfX[b] * Math.abs(this.cos[b] * axis[0] + this.sin[b] * axis[1])
+                    + this.halfY[b] * Math.abs(-this.sin[b] * axis[0] + this.cos[b] * axis[1]);
+            if (distance >= radiusA + radiusB - TOLERANCE)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a new footprint at the end of the arrays, growing them if they are full.
+     */
+    private int grow() {
+        if (this.footprintCount == this.centerX.length) {
+            int capacity = this.footprintCount * 2;
+            this.slot = Arrays.copyOf(this.slot, capacity);
+            this.centerX = Arrays.copyOf(this.centerX, capacity);
+            this.centerY = Arrays.copyOf(this.centerY, capacity);
+            this.halfX = Arrays.copyOf(this.halfX, capacity);
+            this.halfY = Arrays.copyOf(this.halfY, capacity);
+            this.cos = Arrays.copyOf(this.cos, capacity);
+            this.sin = Arrays.copyOf(this.sin, capacity);
+            this.kept = Arrays.copyOf(this.kept, capacity);
+        }
+        return this.footprintCount++;
+    }
+
+    private static long key(int i, int k) {
+        return ((long) i << 32) | (k & 0xFFFFFFFFL);
+    }
+}
@@ -17,38 +17,89 @@
 
 package classes;
 
-import Jcg.geometry.Point_3;
-import Jcg.mesh.SharedVertexRepresentation;
-import Jcg.triangulations2D.TriangulationDSFace_2;
-import Jcg.triangulations2D.TriangulationDSVertex_2;
-import Jcg.triangulations2D.TriangulationDS_2;
 import gui.App;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.IntBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
 
 /**
  * The Grid class is constructed alongside the buildings. This class generates blocks before buildings are placed so
  * that proper spacing and overlap is handled in advanced. The Grid class also handles any transformations applied to
  * buildings and other triangulations.
  */
-class Grid {
+class Grid implements AutoCloseable {
     private static final String OUT_FILE = "city_chunk_";
     private PixelBunch bunch;
     private Block[][] blocks;
-    private TriangulationDS_2<Point_3> triGrid;
-    private TriangulationDS_2<Point_3> triCity;
+    private MeshBuffer triGrid;
+    private MeshBuffer triCity;
+    private MeshBuffer triRoad;
     static final double SECTION_SIZE = 5.5;
+    // Height of the ground tiles
+    static final double GROUND_Z = -1;
     private int width, height;
+    // Room left after each Block of an editable grid, in quarters of the Block's size plus a fixed amount
+    private static final int SLACK_QUARTERS = 1;
+    private static final int MIN_SLACK_VERTICES = 64, MIN_SLACK_FACES = 96;
+    // First face of each building placed in the current Block
+    private final int[] buildingFaceStarts = new int[Block.SIZE * Block.SIZE];
+    private int blockBuildings;
+    // Hidden faces removed from the current Block so far
+    private int blockCulledFaces;
+    // First vertex and face of the current Block in triCity
+    private int openVertexStart, openFaceStart;
+    // Where each Block's vertices and faces are kept in triCity, in the order the Blocks are laid out: the first one,
+    // the end of those in use and the end of the room set aside for the Block. Also the hidden faces removed from it.
+    private final int[] vertexStarts, vertexEnds, vertexLimits;
+    private final int[] faceStarts, faceEnds, faceLimits;
+    private final int[] blockCulled;
+    // Index of the next Block to be ended
+    private int nextBlock;
+    // Whether room is left after each Block so that rebuild() can place it again where it is
+    private final boolean editable;
+    // Vertices and faces of triCity left behind by Blocks that outgrew their room
+    private int wastedVertices, wastedFaces;
+    private final TransformKernel kernel = new TransformKernel();
+    // Whether the grid has ground and roads, merged output writes those for the whole image instead
+    private final boolean ground;
+    // Faces of the buildings placed, and the vertex cache misses drawing them before and after reordering
+    private long placedFaces, cacheMissesBefore, cacheMissesAfter;
 
-    Grid(PixelBunch bunch) {
+    /**
+     * @param bunch is the PixelBunch of the chunk.
+     * @param ground is true to build the ground and roads of the chunk, false to only hold its buildings.
+     * @param editable is true to leave room after the geometry of each Block, so that the Blocks can be placed again
+     * with rebuild().
+     */
+    Grid(PixelBunch bunch, boolean ground, boolean editable) {
         this.bunch = bunch;
+        this.ground = ground;
+        this.editable = editable;
         this.width = bunch.getWidth();
         this.height = bunch.getHeight();
-        this.triGrid = new TriangulationDS_2<>();
-        this.triCity = new TriangulationDS_2<>();
-        initBlocks();
-        //constructTriGridBlocks();
-        constructTriGridPixels();
+        this.triGrid = MeshBuffer.create();
+        this.triCity = MeshBuffer.create();
+        this.triRoad = MeshBuffer.create();
+        this.blocks = createBlocks(bunch);
+        int blockCount = this.blocks.length * this.blocks[0].length;
+        this.vertexStarts = new int[blockCount];
+        this.vertexEnds = new int[blockCount];
+        this.vertexLimits = new int[blockCount];
+        this.faceStarts = new int[blockCount];
+        this.faceEnds = new int[blockCount];
+        this.faceLimits = new int[blockCount];
+        this.blockCulled = new int[blockCount];
+        if (ground)
+            constructGround();
     }
 
     Block[][] getBlocks() {
@@ -56,15 +107,26 @@ class Grid {
     }
 
     /**
-     * Initializes the Block array with Blocks of buildings.
+     * @return the buildings placed so far, without the ground or roads. Unless the grid is editable, the Blocks follow
+     * one another with nothing between them.
      */
-    private void initBlocks() {
-        this.blocks = new Block[(int) Math.ceil((double)this.bunch.getWidth()/App.scale)][(int) Math.ceil((double)this.bunch.getHeight()/App.scale)];
-        for (int i = 0; i < this.bunch.getWidth(); i+=App.scale) {
-            for (int k = 0; k < this.bunch.getHeight(); k+=App.scale) {
-                this.blocks[i/App.scale][k/App.scale] = new Block(this.bunch, i, k);
+    MeshBuffer getBuildings() {
+        return this.triCity;
+    }
+
+    /**
+     * Creates the Block array with Blocks of buildings.
+     * @param bunch is the PixelBunch to build from.
+     * @return a Block for every sector of the PixelBunch.
+     */
+    static Block[][] createBlocks(PixelBunch bunch) {
+        Block[][] blocks = new Block[(int) Math.ceil((double)bunch.getWidth()/App.scale)][(int) Math.ceil((double)bunch.getHeight()/App.scale)];
+        for (int i = 0; i < bunch.getWidth(); i+=App.scale) {
+            for (int k = 0; k < bunch.getHeight(); k+=App.scale) {
+                blocks[i/App.scale][k/App.scale] = new Block(bunch, i, k);
             }
         }
+        return blocks;
     }
 
     /**
@@ -73,136 +135,441 @@ class Grid {
     private void constructTriGridBlocks() {
         for (int i = 0; i < this.blocks.length; i++) {
             for (int k = 0; k < this.blocks[i].length; k++) {
-                TriangulationDSVertex_2 v1 = new TriangulationDSVertex_2<Point_3>();
-                TriangulationDSVertex_2 v2 = new TriangulationDSVertex_2<Point_3>();
-                TriangulationDSVertex_2 v3 = new TriangulationDSVertex_2<Point_3>();
-                TriangulationDSVertex_2 v4 = new TriangulationDSVertex_2<Point_3>();
-                TriangulationDSFace_2 f1;
-                TriangulationDSFace_2 f2;
-
-                v1.setPoint(new Point_3(i*SECTION_SIZE*2 - (SECTION_SIZE/2), k*SECTION_SIZE*2 - (SECTION_SIZE/2), -1));
-                v2.setPoint(new Point_3((i+1)*SECTION_SIZE*2 - (SECTION_SIZE/2), k*SECTION_SIZE*2 - (SECTION_SIZE/2), -1));
-                v3.setPoint(new Point_3((i+1)*SECTION_SIZE*2 - (SECTION_SIZE/2), (k+1)*SECTION_SIZE*2 - (SECTION_SIZE/2), -1));
-                v4.setPoint(new Point_3(i*SECTION_SIZE*2 - (SECTION_SIZE/2), (k+1)*SECTION_SIZE*2 - (SECTION_SIZE/2), -1));
-
-                f1 = new TriangulationDSFace_2(v1, v2, v3, null, null, null);
-                f2 = new TriangulationDSFace_2(v1, v4, v3, null, null, null);
-                f1.setNeighbor(0, f2);
-                f2.setNeighbor(0, f1);
-
-                triGrid.vertices.add(v1);
-                triGrid.vertices.add(v2);
-                triGrid.vertices.add(v3);
-                triGrid.vertices.add(v4);
-                triGrid.faces.add(f1);
-                triGrid.faces.add(f2);
+                int v1 = triGrid.addVertex(i*SECTION_SIZE*2 - (SECTION_SIZE/2), k*SECTION_SIZE*2 - (SECTION_SIZE/2), GROUND_Z);
+                int v2 = triGrid.addVertex((i+1)*SECTION_SIZE*2 - (SECTION_SIZE/2), k*SECTION_SIZE*2 - (SECTION_SIZE/2), GROUND_Z);
+                int v3 = triGrid.addVertex((i+1)*SECTION_SIZE*2 - (SECTION_SIZE/2), (k+1)*SECTION_SIZE*2 - (SECTION_SIZE/2), GROUND_Z);
+                int v4 = triGrid.addVertex(i*SECTION_SIZE*2 - (SECTION_SIZE/2), (k+1)*SECTION_SIZE*2 - (SECTION_SIZE/2), GROUND_Z);
+
+                triGrid.addFace(v1, v2, v3);
+                triGrid.addFace(v1, v4, v3);
             }
         }
     }
 
 
+    /**
+     * Constructs the ground and, when App.generateRoads is set, the roads, which take the place of the ground under
+     * them.
+     */
+    private void constructGround() {
+        RoadNetwork roads = App.generateRoads ? new RoadNetwork(this.blocks, this.width, this.height) : null;
+        //constructTriGridBlocks();
+        constructTriGridPixels(roads);
+        if (roads != null)
+            roads.write(this.triRoad);
+    }
+
     /**
      * Constructs a grid of triangles such that each building has a flat floor just beneath it.
+     * @param roads are the roads of the grid, whose pixels are left out, or null for none.
      */
-    private void constructTriGridPixels() {
+    private void constructTriGridPixels(RoadNetwork roads) {
         Pixel[][] pixels = this.bunch.getPixels();
         for (int i = 0; i < pixels.length; i++) {
             for (int k = 0; k < pixels[i].length; k++) {
-                TriangulationDSVertex_2 v1 = new TriangulationDSVertex_2<Point_3>();
-                TriangulationDSVertex_2 v2 = new TriangulationDSVertex_2<Point_3>();
-                TriangulationDSVertex_2 v3 = new TriangulationDSVertex_2<Point_3>();
-                TriangulationDSVertex_2 v4 = new TriangulationDSVertex_2<Point_3>();
-                TriangulationDSFace_2 f1;
-                TriangulationDSFace_2 f2;
-
-                v1.setPoint(new Point_3(i*SECTION_SIZE - (SECTION_SIZE/2), -k*SECTION_SIZE + (SECTION_SIZE/2), -1));
-                v2.setPoint(new Point_3((i+1)*SECTION_SIZE - (SECTION_SIZE/2), -k*SECTION_SIZE + (SECTION_SIZE/2), -1));
-                v3.setPoint(new Point_3((i+1)*SECTION_SIZE - (SECTION_SIZE/2), -(k+1)*SECTION_SIZE + (SECTION_SIZE/2), -1));
-                v4.setPoint(new Point_3(i*SECTION_SIZE - (SECTION_SIZE/2), -(k+1)*SECTION_SIZE + (SECTION_SIZE/2), -1));
-
-                f1 = new TriangulationDSFace_2(v1, v2, v3, null, null, null);
-                f2 = new TriangulationDSFace_2(v1, v4, v3, null, null, null);
-                f1.setNeighbor(0, f2);
-                f2.setNeighbor(0, f1);
-
-                triGrid.vertices.add(v1);
-                triGrid.vertices.add(v2);
-                triGrid.vertices.add(v3);
-                triGrid.vertices.add(v4);
-                triGrid.faces.add(f1);
-                triGrid.faces.add(f2);
+                if (roads != null && roads.isRoad(i, k))
+                    continue;
+                int v1 = triGrid.addVertex(i*SECTION_SIZE - (SECTION_SIZE/2), -k*SECTION_SIZE + (SECTION_SIZE/2), GROUND_Z);
+                int v2 = triGrid.addVertex((i+1)*SECTION_SIZE - (SECTION_SIZE/2), -k*SECTION_SIZE + (SECTION_SIZE/2), GROUND_Z);
+                int v3 = triGrid.addVertex((i+1)*SECTION_SIZE - (SECTION_SIZE/2), -(k+1)*SECTION_SIZE + (SECTION_SIZE/2), GROUND_Z);
+                int v4 = triGrid.addVertex(i*SECTION_SIZE - (SECTION_SIZE/2), -(k+1)*SECTION_SIZE + (SECTION_SIZE/2), GROUND_Z);
+
+                triGrid.addFace(v1, v2, v3);
+                triGrid.addFace(v1, v4, v3);
+            }
+        }
+    }
+
+    /**
+     * Constructs the ground of an area as one grid of triangles that share their corners, laid out the same as the
+     * tiles of constructTriGridPixels(). Only the corners of the tiles that are built get a vertex.
+     * @param m is the empty mesh to write to.
+     * @param width is the width of the area in pixels.
+     * @param height is the height of the area in pixels.
+     * @param roads are the roads of the area, whose pixels are left out, or null for none.
+     */
+    static void constructWeldedGround(MeshBuffer m, int width, int height, RoadNetwork roads) {
+        int[] corners = new int[(width + 1) * (height + 1)];
+        for (int i = 0; i < width; i++) {
+            for (int k = 0; k < height; k++) {
+                if (roads != null && roads.isRoad(i, k))
+                    continue;
+                int v1 = i*(height + 1) + k;
+                int v2 = (i + 1)*(height + 1) + k;
+                corners[v1] = corners[v1 + 1] = corners[v2] = corners[v2 + 1] = 1;
+            }
+        }
+        // Number the used corners in order
+        for (int i = 0; i <= width; i++) {
+            for (int k = 0; k <= height; k++) {
+                int c = i*(height + 1) + k;
+                corners[c] = corners[c] == 0 ? -1
+                        : m.addVertex(i*SECTION_SIZE - (SECTION_SIZE/2), -k*SECTION_SIZE + (SECTION_SIZE/2), GROUND_Z);
+            }
+        }
+        for (int i = 0; i < width; i++) {
+            for (int k = 0; k < height; k++) {
+                if (roads != null && roads.isRoad(i, k))
+                    continue;
+                int v1 = corners[i*(height + 1) + k];
+                int v2 = corners[(i + 1)*(height + 1) + k];
+                int v3 = corners[(i + 1)*(height + 1) + k + 1];
+                int v4 = corners[i*(height + 1) + k + 1];
+                m.addFace(v1, v2, v3);
+                m.addFace(v1, v4, v3);
             }
         }
     }
 
     /**
-     * Outputs the grid to an OFF
+     * Outputs the grid, with the ground beneath the buildings, in the format chosen by App.format. The file is
+     * gzipped when App.compressOutput is set. It is written under a temporary name and renamed once complete, so an
+     * existing file is only ever replaced by a complete one.
+     * @param dir is the directory to write to, or null for the working directory.
+     * @param num is the number of the chunk.
+     * @return a description of the written file, or null if it could not be written.
      */
-    void output(int num) {
-        this.append(this.triGrid);
-        SharedVertexRepresentation mesh = new SharedVertexRepresentation(triCity);
+    ChunkInfo output(File dir, int num) {
+        String fileName = OUT_FILE + num + "." + App.format.getExtension() + (App.compressOutput ? ".gz" : "");
+        File file = new File(dir, fileName);
+        File part = new File(dir, fileName + RunJournal.PART_SUFFIX);
+        MessageDigest digest = newDigest();
+        double[] bounds;
         try {
-            mesh.writeOffFile(OUT_FILE + num + ".off");
+            try (MeshSink sink = App.format.createSink(openOutput(part, digest))) {
+                bounds = write(sink);
+            }
+            RunJournal.commit(part, file);
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        } finally {
+            // Gone once renamed into place, left over only if writing failed
+            part.delete();
         }
+        return new ChunkInfo(num, fileName, getBuildingVertexCount() + triGrid.getVertexCount() + triRoad.getVertexCount(),
+                getBuildingFaceCount() + triGrid.getFaceCount() + triRoad.getFaceCount(), bounds, file.length(),
+                toHex(digest.digest()));
     }
 
     /**
-     * Combines a new triangulation to triCity such that all vertices, halfedges, and facets from p2 are copied into p1.
-     * @param t is the triangulation that lends its properties to be copied into p1.
+     * Opens a chunk file for writing, hashing the bytes that reach the file.
      */
-    void append(TriangulationDS_2<Point_3> t) {
-        triCity.vertices.addAll(t.vertices);
-        triCity.faces.addAll(t.faces);
+    private static OutputStream openOutput(File file, MessageDigest digest) throws IOException {
+        OutputStream out = new DigestOutputStream(new FileOutputStream(file), digest);
+        if (!App.compressOutput)
+            return out;
+        try {
+            return new ParallelGzipOutputStream(out, Deflater.DEFAULT_COMPRESSION);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
     }
 
     /**
-     * Translates the triangulation along the grid and elevating the z coordinate.
-     * @param triangulationDS2 is the building to be translated.
-     * @param i determines how many grid spaces down the x axis to translate.
-     * @param k determines how many grid spaces down the y axis to translate.
-     * @param zCoord determines the elevation.
+     * Streams the buildings of each Block in turn, followed by the ground grid and the roads, into a sink as a single
+     * mesh. The room left between the Blocks of an editable grid is skipped.
+     * @param sink is the sink to write to.
+     * @return the bounds {minX, minY, minZ, maxX, maxY, maxZ} of the written vertices.
+     */
+    private double[] write(MeshSink sink) throws IOException {
+        double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+                -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        int buildingVertices = getBuildingVertexCount();
+        sink.begin(buildingVertices + triGrid.getVertexCount() + triRoad.getVertexCount(),
+                getBuildingFaceCount() + triGrid.getFaceCount() + triRoad.getFaceCount());
+        for (int b = 0; b < this.nextBlock; b++)
+            writeVertices(sink, triCity, this.vertexStarts[b], this.vertexEnds[b], bounds);
+        writeVertices(sink, triGrid, 0, triGrid.getVertexCount(), bounds);
+        writeVertices(sink, triRoad, 0, triRoad.getVertexCount(), bounds);
+        // Each Block's vertices are written right after the previous Block's
+        int base = 0;
+        for (int b = 0; b < this.nextBlock; b++) {
+            writeFaces(sink, triCity, this.faceStarts[b], this.faceEnds[b], base - this.vertexStarts[b]);
+            base += this.vertexEnds[b] - this.vertexStarts[b];
+        }
+        writeFaces(sink, triGrid, 0, triGrid.getFaceCount(), buildingVertices);
+        writeFaces(sink, triRoad, 0, triRoad.getFaceCount(), buildingVertices + triGrid.getVertexCount());
+        if (bounds[0] > bounds[3])
+            return new double[6];
+        return bounds;
+    }
+
+    private static void writeVertices(MeshSink sink, MeshBuffer m, int start, int end, double[] bounds) throws IOException {
+        for (int v = start; v < end; v++) {
+            double x = m.getX(v), y = m.getY(v), z = m.getZ(v);
+            sink.vertex(x, y, z);
+            bounds[0] = Math.min(bounds[0], x);
+            bounds[1] = Math.min(bounds[1], y);
+            bounds[2] = Math.min(bounds[2], z);
+            bounds[3] = Math.max(bounds[3], x);
+            bounds[4] = Math.max(bounds[4], y);
+            bounds[5] = Math.max(bounds[5], z);
+        }
+    }
+
+    private static void writeFaces(MeshSink sink, MeshBuffer m, int start, int end, int base) throws IOException {
+        for (int f = start; f < end; f++)
+            sink.face(base + m.getFaceVertex(f, 0), base + m.getFaceVertex(f, 1), base + m.getFaceVertex(f, 2));
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Ends the current Block. When App.cullHiddenFaces is set, faces of its buildings that are pressed against one
+     * another are removed, along with the vertices only those faces used. When the grid is editable, room is left
+     * after the Block for it to grow into when it is placed again.
      */
-    static void translate(TriangulationDS_2<Point_3> triangulationDS2, int i, int k, double zCoord, double[] offset) {
-        for (int c = 0; c < triangulationDS2.vertices.size(); c++) {
-            Point_3 point = triangulationDS2.vertices.get(c).getPoint();
-            point.x += SECTION_SIZE*i + offset[0];
-            point.y -= SECTION_SIZE*k + offset[1];
-            point.z += zCoord;
+    void endBlock() {
+        int b = this.nextBlock++;
+        if (App.cullHiddenFaces)
+            this.blockCulledFaces += FaceCuller.cullBlock(this.triCity, this.openVertexStart, this.buildingFaceStarts,
+                    this.blockBuildings);
+        this.blockCulled[b] = this.blockCulledFaces;
+        this.blockCulledFaces = 0;
+        this.blockBuildings = 0;
+        this.vertexStarts[b] = this.openVertexStart;
+        this.faceStarts[b] = this.openFaceStart;
+        this.vertexEnds[b] = this.triCity.getVertexCount();
+        this.faceEnds[b] = this.triCity.getFaceCount();
+        if (this.editable)
+            leaveRoom(this.triCity, this.vertexEnds[b] - this.vertexStarts[b], this.faceEnds[b] - this.faceStarts[b]);
+        this.vertexLimits[b] = this.openVertexStart = this.triCity.getVertexCount();
+        this.faceLimits[b] = this.openFaceStart = this.triCity.getFaceCount();
+    }
+
+    /**
+     * Adds unused vertices and faces to the end of a mesh, as room for a Block of the given size to grow into.
+     */
+    private static void leaveRoom(MeshBuffer m, int vertices, int faces) {
+        for (int v = vertices * SLACK_QUARTERS / 4 + MIN_SLACK_VERTICES; v > 0; v--)
+            m.addVertex(0, 0, 0);
+        for (int f = faces * SLACK_QUARTERS / 4 + MIN_SLACK_FACES; f > 0; f--)
+            m.addFace(0, 0, 0);
+    }
+
+    /**
+     * Places the buildings of some of the grid's Blocks again after the pixels of the chunk have changed, keeping the
+     * geometry of the other Blocks where it is. Each changed Block is placed after the end of triCity and then moved
+     * into its own room, so an edit only costs as much as the Blocks it changes. A Block that has outgrown its room
+     * stays at the end of triCity with new room of its own, and the mesh is packed again once more than half of it
+     * is left behind. The written result is the same as building a new grid from the new pixels. The grid must be
+     * editable and every Block must have been ended.
+     * @param bunch is the PixelBunch of the new pixels, the same size as the old one.
+     * @param blocks are the Blocks created from the new pixels.
+     * @param dirty is true for each Block whose buildings are placed again.
+     * @param placer places the buildings of a Block and ends the Block.
+     */
+    void rebuild(PixelBunch bunch, Block[][] blocks, boolean[][] dirty, Consumer<Block> placer) {
+        if (!this.editable)
+            throw new IllegalStateException("The grid was not built to be edited");
+        if (this.nextBlock != this.vertexStarts.length)
+            throw new IllegalStateException("Only " + this.nextBlock + " of " + this.vertexStarts.length + " Blocks were ended");
+        this.bunch = bunch;
+        this.blocks = blocks;
+        for (int i = 0; i < blocks.length; i++) {
+            for (int k = 0; k < blocks[i].length; k++) {
+                if (!dirty[i][k])
+                    continue;
+                int b = i * blocks[i].length + k;
+                int vertexStart = this.vertexStarts[b], vertexLimit = this.vertexLimits[b];
+                int faceStart = this.faceStarts[b], faceLimit = this.faceLimits[b];
+                int newVertexStart = this.triCity.getVertexCount(), newFaceStart = this.triCity.getFaceCount();
+                this.openVertexStart = newVertexStart;
+                this.openFaceStart = newFaceStart;
+                this.nextBlock = b;
+                placer.accept(blocks[i][k]);
+                int vertices = this.vertexEnds[b] - newVertexStart, faces = this.faceEnds[b] - newFaceStart;
+                if (vertices > vertexLimit - vertexStart || faces > faceLimit - faceStart) {
+                    // Left where it was placed, its old room is no longer used
+                    this.wastedVertices += vertexLimit - vertexStart;
+                    this.wastedFaces += faceLimit - faceStart;
+                    continue;
+                }
+                // Move the Block into its room, moving its face indices along with its vertices
+                for (int v = 0; v < vertices; v++)
+                    this.triCity.setVertex(vertexStart + v, this.triCity.getX(newVertexStart + v),
+                            this.triCity.getY(newVertexStart + v), this.triCity.getZ(newVertexStart + v));
+                int shift = vertexStart - newVertexStart;
+                for (int f = 0; f < faces; f++)
+                    this.triCity.setFace(faceStart + f, this.triCity.getFaceVertex(newFaceStart + f, 0) + shift,
+                            this.triCity.getFaceVertex(newFaceStart + f, 1) + shift,
+                            this.triCity.getFaceVertex(newFaceStart + f, 2) + shift);
+                this.triCity.truncate(newVertexStart, newFaceStart);
+                this.vertexStarts[b] = vertexStart;
+                this.vertexEnds[b] = vertexStart + vertices;
+                this.vertexLimits[b] = vertexLimit;
+                this.faceStarts[b] = faceStart;
+                this.faceEnds[b] = faceStart + faces;
+                this.faceLimits[b] = faceLimit;
+            }
+        }
+        this.nextBlock = this.vertexStarts.length;
+        this.openVertexStart = this.triCity.getVertexCount();
+        this.openFaceStart = this.triCity.getFaceCount();
+        if (this.wastedVertices > this.triCity.getVertexCount() / 2 || this.wastedFaces > this.triCity.getFaceCount() / 2)
+            pack();
+        if (this.ground && App.generateRoads) {
+            this.triGrid.truncate(0, 0);
+            this.triRoad.truncate(0, 0);
+            constructGround();
         }
     }
 
     /**
-     * Scales the size of the given triangulation to the given scale.
-     * @param triangulationDS2 is the triangulation to be scaled.
-     * @param scale is the scale.
+     * Closes up the room left behind by Blocks that outgrew theirs, moving the Blocks down triCity in the order they
+     * are kept in it. Each Block keeps its room, so none is moved past where it was and nothing needs copying aside.
      */
-    static void scale(TriangulationDS_2<Point_3> triangulationDS2, double scale) {
-        for (int c = 0; c < triangulationDS2.vertices.size(); c++) {
-            Point_3 point = triangulationDS2.vertices.get(c).getPoint();
-            point.x *= scale;
-            point.y *= scale;
-            point.z *= scale;
+    private void pack() {
+        int count = this.nextBlock;
+        // Blocks in the order of their vertices in triCity, and how far each Block's vertices move
+        long[] order = new long[count];
+        for (int b = 0; b < count; b++)
+            order[b] = (long) this.vertexStarts[b] << 32 | b;
+        Arrays.sort(order);
+        int[] shifts = new int[count];
+        int end = 0;
+        for (long entry : order) {
+            int b = (int) entry;
+            int shift = shifts[b] = end - this.vertexStarts[b];
+            if (shift != 0)
+                for (int v = this.vertexStarts[b]; v < this.vertexEnds[b]; v++)
+                    this.triCity.setVertex(v + shift, this.triCity.getX(v), this.triCity.getY(v), this.triCity.getZ(v));
+            this.vertexStarts[b] += shift;
+            this.vertexEnds[b] += shift;
+            end = this.vertexLimits[b] += shift;
+        }
+        int vertexEnd = end;
+
+        for (int b = 0; b < count; b++)
+            order[b] = (long) this.faceStarts[b] << 32 | b;
+        Arrays.sort(order);
+        end = 0;
+        for (long entry : order) {
+            int b = (int) entry;
+            int shift = end - this.faceStarts[b];
+            if (shift != 0 || shifts[b] != 0)
+                for (int f = this.faceStarts[b]; f < this.faceEnds[b]; f++)
+                    this.triCity.setFace(f + shift, this.triCity.getFaceVertex(f, 0) + shifts[b],
+                            this.triCity.getFaceVertex(f, 1) + shifts[b], this.triCity.getFaceVertex(f, 2) + shifts[b]);
+            this.faceStarts[b] += shift;
+            this.faceEnds[b] += shift;
+            end = this.faceLimits[b] += shift;
         }
+        this.triCity.truncate(vertexEnd, end);
+        this.openVertexStart = vertexEnd;
+        this.openFaceStart = end;
+        this.wastedVertices = 0;
+        this.wastedFaces = 0;
+    }
+
+    /**
+     * @return the number of vertices of the buildings of the ended Blocks.
+     */
+    int getBuildingVertexCount() {
+        int vertices = 0;
+        for (int b = 0; b < this.nextBlock; b++)
+            vertices += this.vertexEnds[b] - this.vertexStarts[b];
+        return vertices;
+    }
+
+    /**
+     * @return the number of faces of the buildings of the ended Blocks.
+     */
+    int getBuildingFaceCount() {
+        int faces = 0;
+        for (int b = 0; b < this.nextBlock; b++)
+            faces += this.faceEnds[b] - this.faceStarts[b];
+        return faces;
     }
 
     /**
-     * Rotates the triangulation around the z-axis.
-     * @param triangulationDS2 is the building to be rotated.
+     * @return the number of hidden faces removed from the buildings of the grid, including those of Blocks kept by
+     * rebuild().
+     */
+    int getCulledFaceCount() {
+        int culled = 0;
+        for (int b = 0; b < this.nextBlock; b++)
+            culled += this.blockCulled[b];
+        return culled;
+    }
+
+    /**
+     * @return the average vertex cache miss ratio {before, after} reordering of the buildings placed so far, as
+     * placed before any hidden faces of their Blocks are culled.
+     */
+    double[] getCacheMissRatios() {
+        if (this.placedFaces == 0)
+            return new double[2];
+        return new double[]{(double) this.cacheMissesBefore / this.placedFaces,
+                (double) this.cacheMissesAfter / this.placedFaces};
+    }
+
+    /**
+     * Releases the meshes held by the grid once its chunk has been output.
+     */
+    @Override
+    public void close() {
+        this.triCity.close();
+        this.triGrid.close();
+        this.triRoad.close();
+    }
+
+    /**
+     * Adds an instance of a library building to triCity. The prototype is scaled by the sector scale, rotated around
+     * the z axis, translated along the grid and elevated in a single pass over its vertices, in batches when
+     * App.batchTransform is set. When App.optimizeVertexCache is set, the prototype's triangles and vertices are first
+     * reordered for the vertex cache.
+     * @param prototype is the normalized building mesh.
      * @param angle is the angle of rotation in degrees.
+     * @param i determines how many grid spaces down the x axis to translate.
+     * @param k determines how many grid spaces down the y axis to translate.
+     * @param zCoord determines the elevation.
+     * @param offset is the position of the building within its grid space.
      */
-    static void rotate(TriangulationDS_2<Point_3> triangulationDS2, double angle) {
-        double cosT, sinT, x, y;
-        for (int c = 0; c < triangulationDS2.vertices.size(); c++) {
-            Point_3 point = triangulationDS2.vertices.get(c).getPoint();
-            // Rotation is handles around the z axis, so that buildings are always rooted to the ground.
-            cosT = Math.cos(Math.toRadians(angle));
-            sinT = Math.sin(Math.toRadians(angle));
-            x = point.x*cosT - point.y*sinT;
-            y = point.x*sinT + point.y*cosT;
-            point.x = x;
-            point.y = y;
+    void place(Prototype prototype, double angle, int i, int k, double zCoord, double[] offset) {
+        // The floor is only hidden when it rests on the ground, buildings on higher elevations show theirs
+        boolean cullBase = App.cullHiddenFaces
+                && Math.abs(prototype.getBaseZ() * App.scale + zCoord - GROUND_Z) < FaceCuller.EPSILON;
+        if (App.optimizeVertexCache) {
+            Prototype optimized = MeshLibrary.getOptimized(prototype);
+            this.cacheMissesBefore += prototype.getCacheMisses(cullBase);
+            this.cacheMissesAfter += optimized.getCacheMisses(cullBase);
+            prototype = optimized;
         }
+        IntBuffer faces = cullBase ? prototype.getFacesAboveBase() : prototype.getFaces();
+        this.blockCulledFaces += prototype.getFaceCount() - faces.limit() / 3;
+        this.placedFaces += faces.limit() / 3;
+        this.buildingFaceStarts[this.blockBuildings++] = triCity.getFaceCount();
+        double scale = App.scale;
+        // Rotation is handled around the z axis, so that buildings are always rooted to the ground.
+        double cosT = Math.cos(Math.toRadians(angle)) * scale;
+        double sinT = Math.sin(Math.toRadians(angle)) * scale;
+        double dx = SECTION_SIZE*i + offset[0];
+        double dy = -(SECTION_SIZE*k + offset[1]);
+        int base = triCity.getVertexCount();
+        if (App.batchTransform)
+            this.kernel.place(prototype, triCity, cosT, sinT, scale, dx, dy, zCoord);
+        else
+            TransformKernel.placeScalar(prototype, triCity, cosT, sinT, scale, dx, dy, zCoord);
+        for (int c = 0; c < faces.limit(); c += 3)
+            triCity.addFace(base + faces.get(c), base + faces.get(c + 1), base + faces.get(c + 2));
     }
 }
@@ -0,0 +1,120 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import java.util.Arrays;
+
+/**
+ * A mesh stored on the Java heap as flat arrays of packed vertex coordinates and face indices.
+ */
+class HeapMeshBuffer extends MeshBuffer {
+    private static final int INITIAL_CAPACITY = 1024;
+    private double[] vertices = new double[INITIAL_CAPACITY * 3];
+    private int[] faces = new int[INITIAL_CAPACITY * 3];
+    private int vertexCount, faceCount;
+
+    @Override
+    int addVertex(double x, double y, double z) {
+        if ((this.vertexCount + 1) * 3 > this.vertices.length)
+            this.vertices = Arrays.copyOf(this.vertices, this.vertices.length * 2);
+        int i = this.vertexCount * 3;
+        this.vertices[i] = x;
+        this.vertices[i + 1] = y;
+        this.vertices[i + 2] = z;
+        return this.vertexCount++;
+    }
+
+    @Override
+    int addVertices(double[] x, double[] y, double[] z, int n) {
+        int size = (this.vertexCount + n) * 3;
+        if (size > this.vertices.length)
+            this.vertices = Arrays.copyOf(this.vertices, Math.max(this.vertices.length * 2, size));
+        double[] vertices = this.vertices;
+        for (int v = 0, i = this.vertexCount * 3; v < n; v++, i += 3) {
+            vertices[i] = x[v];
+            vertices[i + 1] = y[v];
+            vertices[i + 2] = z[v];
+        }
+        int first = this.vertexCount;
+        this.vertexCount += n;
+        return first;
+    }
+
+    @Override
+    void setVertex(int v, double x, double y, double z) {
+        int i = v * 3;
+        this.vertices[i] = x;
+        this.vertices[i + 1] = y;
+        this.vertices[i + 2] = z;
+    }
+
+    @Override
+    void addFace(int a, int b, int c) {
+        if ((this.faceCount + 1) * 3 > this.faces.length)
+            this.faces = Arrays.copyOf(this.faces, this.faces.length * 2);
+        int i = this.faceCount * 3;
+        this.faces[i] = a;
+        this.faces[i + 1] = b;
+        this.faces[i + 2] = c;
+        this.faceCount++;
+    }
+
+    @Override
+    void setFace(int f, int a, int b, int c) {
+        int i = f * 3;
+        this.faces[i] = a;
+        this.faces[i + 1] = b;
+        this.faces[i + 2] = c;
+    }
+
+    @Override
+    void truncate(int vertexCount, int faceCount) {
+        this.vertexCount = Math.min(this.vertexCount, vertexCount);
+        this.faceCount = Math.min(this.faceCount, faceCount);
+    }
+
+    @Override
+    int getVertexCount() {
+        return this.vertexCount;
+    }
+
+    @Override
+    int getFaceCount() {
+        return this.faceCount;
+    }
+
+    @Override
+    double getX(int v) {
+        return this.vertices[v * 3];
+    }
+
+    @Override
+    double getY(int v) {
+        return this.vertices[v * 3 + 1];
+    }
+
+    @Override
+    double getZ(int v) {
+        return this.vertices[v * 3 + 2];
+    }
+
+    @Override
+    int getFaceVertex(int f, int i) {
+        return this.faces[f * 3 + i];
+    }
+}
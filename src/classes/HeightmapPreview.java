@@ -0,0 +1,183 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static classes.Grid.SECTION_SIZE;
+
+/**
+ * Draws a shaded top-down picture of the city an input image would generate, without building any geometry. The
+ * Blocks are laid out as they would be for generation and each building is drawn as the outline of its prototype,
+ * shaded by the height of its roof and casting a shadow to the south east. Roads and open ground are drawn flat. The
+ * outlines and heights come from the library metadata, so no building mesh is loaded.
+ *
+ * Run this class to write the preview of an image to a PNG file.
+ */
+public class HeightmapPreview {
+    // Width in pixels of the area covered by one pixel of the input image
+    public static final int PIXELS_PER_SECTION = 8;
+    private static final Color GROUND = new Color(0xC8C2AE);
+    private static final Color ROAD = new Color(0x5A5A5E);
+    private static final Color SHADOW = new Color(0, 0, 0, 70);
+    // Length of a building's shadow relative to its height
+    private static final double SHADOW_LENGTH = 0.6;
+
+    private HeightmapPreview() {
+    }
+
+    /**
+     * Draws the preview of an input image at the current sector scale.
+     * @param image is the input image, already processed for the sector scale.
+     * @return the preview, PIXELS_PER_SECTION pixels wide for every pixel of the input image.
+     */
+    public static BufferedImage render(BufferedImage image) {
+        PixelBunch bunch = new PixelBunch(image);
+        Block[][] blocks = Grid.createBlocks(bunch);
+        if (App.resolveCollisions)
+            new FootprintCollider(image, MeshLibrary.NUM_STORIES - 1).apply(blocks, 0, 0);
+        BufferedImage preview = new BufferedImage(bunch.getWidth() * PIXELS_PER_SECTION,
+                bunch.getHeight() * PIXELS_PER_SECTION, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = preview.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(GROUND);
+            g.fillRect(0, 0, preview.getWidth(), preview.getHeight());
+
+            // Roads cover whole pixels of the input image
+            g.setColor(ROAD);
+            for (Block[] column : blocks) {
+                for (Block block : column) {
+                    if (block.isRoad())
+                        g.fillRect(block.getX() * PIXELS_PER_SECTION, block.getY() * PIXELS_PER_SECTION,
+                                App.scale * PIXELS_PER_SECTION, App.scale * PIXELS_PER_SECTION);
+                }
+            }
+
+            // Collect the outline and roof height of every building
+            ArrayList<Path2D> outlines = new ArrayList<>();
+            ArrayList<Double> heights = new ArrayList<>();
+            double maxHeight = 0;
+            for (Block[] column : blocks) {
+                for (Block block : column) {
+                    for (int x = 0; x < Block.SIZE; x++) {
+                        for (int y = 0; y < Block.SIZE; y++) {
+                            if (!block.isEnabled(x, y))
+                                continue;
+                            Building building = block.getBuilding(x, y);
+                            PrototypeInfo info = MeshLibrary.getInfo(building.getShapeType(), block.getNumStories());
+                            double height = info.getHeight() * App.scale + block.getElevation() * MeshLibrary.UNIT_SCALE;
+                            outlines.add(outline(info, building, block));
+                            heights.add(height);
+                            maxHeight = Math.max(maxHeight, height);
+                        }
+                    }
+                }
+            }
+
+            // Shadows go under every building, then buildings are drawn from the lowest roof to the highest
+            g.setColor(SHADOW);
+            for (int b = 0; b < outlines.size(); b++) {
+                double length = heights.get(b) * SHADOW_LENGTH * PIXELS_PER_SECTION / SECTION_SIZE;
+                Shape shadow = outlines.get(b).createTransformedShape(
+                        AffineTransform.getTranslateInstance(length, length));
+                g.fill(shadow);
+            }
+            Integer[] order = new Integer[outlines.size()];
+            for (int b = 0; b < order.length; b++)
+                order[b] = b;
+            Arrays.sort(order, (a, b) -> Double.compare(heights.get(a), heights.get(b)));
+            for (int b : order) {
+                Color roof = shade(maxHeight > 0 ? heights.get(b) / maxHeight : 0);
+                g.setColor(roof);
+                g.fill(outlines.get(b));
+                g.setColor(roof.darker());
+                g.draw(outlines.get(b));
+            }
+        } finally {
+            g.dispose();
+        }
+        return preview;
+    }
+
+    /**
+     * Places the footprint of a building the same way Grid.place() places its vertices, in preview pixels.
+     */
+    private static Path2D outline(PrototypeInfo info, Building building, Block block) {
+        float[] footprint = info.getFootprint();
+        double cosT = Math.cos(Math.toRadians(building.getAngle())) * App.scale;
+        double sinT = Math.sin(Math.toRadians(building.getAngle())) * App.scale;
+        double dx = SECTION_SIZE * block.getX() + building.getOffset()[0];
+        double dy = -(SECTION_SIZE * block.getY() + building.getOffset()[1]);
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, footprint.length / 2);
+        for (int c = 0; c < footprint.length; c += 2) {
+            double x = footprint[c];
+            double y = footprint[c + 1];
+            // The ground tile of input pixel (i, k) spans i*SECTION_SIZE - SECTION_SIZE/2 along x and the same
+            // distance down from -k*SECTION_SIZE + SECTION_SIZE/2 along y
+            double px = (x*cosT - y*sinT + dx + SECTION_SIZE/2) * PIXELS_PER_SECTION / SECTION_SIZE;
+            double py = (SECTION_SIZE/2 - (x*sinT + y*cosT + dy)) * PIXELS_PER_SECTION / SECTION_SIZE;
+            if (c == 0)
+                path.moveTo(px, py);
+            else
+                path.lineTo(px, py);
+        }
+        path.closePath();
+        return path;
+    }
+
+    /**
+     * @param level is the height of a roof relative to the highest roof (0-1).
+     * @return the colour of the roof, from dark blue for the lowest to near white for the highest.
+     */
+    private static Color shade(double level) {
+        return Color.getHSBColor(0.6f, (float) (0.55 - 0.45 * level), (float) (0.35 + 0.6 * level));
+    }
+
+    /**
+     * Writes the preview of an image to a PNG file.
+     * @param args are the input image, the PNG file to write and optionally the sector scale (1-5).
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: HeightmapPreview <input image> <output png> [sector scale]");
+            return;
+        }
+        File input = new File(args[0]);
+        BufferedImage image = ImageIO.read(input);
+        if (image == null)
+            throw new IOException("Unsupported image format: " + input);
+        App.hasAlpha = input.getName().toLowerCase().endsWith(".png");
+        if (args.length > 2)
+            App.scale = Integer.parseInt(args[2]);
+        long start = System.nanoTime();
+        BufferedImage preview = render(image);
+        Main.print("Rendered preview in " + (System.nanoTime() - start) / 1000000 + " ms");
+        ImageIO.write(preview, "png", new File(args[1]));
+    }
+}
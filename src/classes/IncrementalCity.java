@@ -0,0 +1,280 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Keeps the city generated from the last input in memory, so that generating again after an edit to the input only
+ * redoes what the edit changed. The new image is compared with the last one a row at a time, and a Block is placed
+ * again if any of its pixels changed or if the FootprintCollider now leaves out different buildings from it. The
+ * collisions are resolved again only around the changed Blocks, and the triangle budget is checked against estimates
+ * kept for each chunk, of which only the changed chunks are counted again. The new geometry of the changed Blocks is
+ * patched into their chunk's mesh in place of the old, and only the chunks holding such a Block are written again.
+ * The files written are the same as those of generating from scratch.
+ *
+ * Any change other than to the pixels, such as the size of the image, the sector scale, an output option, the triangle
+ * budget or the story limit it leads to, generates the whole city again. Merged output and dry runs are not kept and
+ * are always generated from scratch.
+ *
+ * The geometry of the whole city stays in memory between generations, with some room to spare for each Block, kept
+ * off the Java heap when App.offHeap is set. It is only used when App.incrementalEdits is set, as large maps may not
+ * fit.
+ */
+public class IncrementalCity {
+    private final File dir;
+    // State of the last generation, or null grids if there is none
+    private int[] pixels;
+    private String settings;
+    private int storyCap;
+    private ArrayList<int[]> chunkBounds;
+    private Grid[] grids;
+    private ChunkInfo[] infos;
+    // Estimates the size of each chunk when App.triangleBudget is set, otherwise null
+    private CostEstimator estimator;
+    // Leaves out overlapping buildings when App.resolveCollisions is set, otherwise null
+    private FootprintCollider collider;
+
+    /**
+     * @param dir is the directory to write the chunks and manifest to, or null for the working directory.
+     */
+    public IncrementalCity(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Generates the city for an image, regenerating only the Blocks that differ from the last image generated.
+     * @param image is the input image.
+     */
+    public synchronized void generate(BufferedImage image) {
+        if (App.mergeChunks || App.dryRun) {
+            clear();
+            Main.generate(image, this.dir);
+            return;
+        }
+        long start = System.nanoTime();
+        String settings = getSettings(image.getWidth(), image.getHeight());
+
+        try {
+            if (this.grids == null || !settings.equals(this.settings)) {
+                clear();
+                this.pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+                this.chunkBounds = Main.splitChunks(image);
+                int storyCap = MeshLibrary.NUM_STORIES - 1;
+                if (App.triangleBudget > 0) {
+                    this.estimator = new CostEstimator(image, this.chunkBounds, null);
+                    storyCap = Main.capStories(this.estimator);
+                }
+                buildAll(image, storyCap);
+                Main.print("Generated " + this.chunkBounds.size() + " chunks in " + (System.nanoTime() - start) / 1000000 + " ms");
+            } else {
+                boolean[][] dirty = findDirtyBlocks(image);
+                if (dirty == null) {
+                    Main.print("Input unchanged, nothing to regenerate");
+                    return;
+                }
+                int storyCap = this.storyCap;
+                if (this.estimator != null) {
+                    for (int num = 0; num < this.chunkBounds.size(); num++)
+                        if (countDirtyBlocks(num, dirty) > 0)
+                            this.estimator.update(image, num);
+                    storyCap = Main.capStories(this.estimator);
+                }
+                if (storyCap != this.storyCap) {
+                    // Every building may change height, and with it its footprint
+                    closeGrids();
+                    buildAll(image, storyCap);
+                    Main.print("Generated " + this.chunkBounds.size() + " chunks in "
+                            + (System.nanoTime() - start) / 1000000 + " ms");
+                } else {
+                    if (this.collider != null) {
+                        this.collider.update(image, dirty);
+                        Main.print("Leaving out " + this.collider.getCollisionCount() + " overlapping buildings");
+                    }
+                    int blocks = 0, chunks = 0;
+                    for (int num = 0; num < this.chunkBounds.size(); num++) {
+                        int changed = rebuildChunk(image, num, dirty);
+                        if (changed > 0) {
+                            blocks += changed;
+                            chunks++;
+                        }
+                    }
+                    Main.print("Regenerated " + blocks + " blocks in " + chunks + " of " + this.chunkBounds.size()
+                            + " chunks in " + (System.nanoTime() - start) / 1000000 + " ms");
+                }
+            }
+        } catch (RuntimeException e) {
+            // The chunks may be half rebuilt, start again next time
+            clear();
+            throw e;
+        }
+
+        ChunkManifest manifest = new ChunkManifest();
+        for (ChunkInfo info : this.infos) {
+            if (info == null) {
+                // A chunk could not be written, so the files on disk no longer match the city in memory
+                clear();
+                Main.print("Finished!");
+                return;
+            }
+            manifest.add(info);
+        }
+        try {
+            manifest.write(new File(this.dir, ChunkManifest.MANIFEST_FILE));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.settings = settings;
+        Main.print("Finished!");
+    }
+
+    /**
+     * Resolves the collisions, and builds and writes every chunk of the image, keeping their grids.
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed.
+     */
+    private void buildAll(BufferedImage image, int storyCap) {
+        this.storyCap = storyCap;
+        this.collider = Main.resolveCollisions(image, this.storyCap);
+        this.grids = new Grid[this.chunkBounds.size()];
+        this.infos = new ChunkInfo[this.chunkBounds.size()];
+        for (int num = 0; num < this.chunkBounds.size(); num++) {
+            int[] bounds = this.chunkBounds.get(num);
+            Main.print("BEGINNING CHUNK RENDER: (" + num + ")");
+            Grid grid = Main.buildChunk(image, bounds, this.storyCap, this.collider, true, true);
+            if (grid == null)
+                throw new IllegalStateException("Chunk " + num + " could not be read");
+            this.grids[num] = grid;
+            this.infos[num] = write(grid, bounds, num);
+        }
+    }
+
+    /**
+     * Places the changed Blocks of a chunk again and writes the chunk, if any of its Blocks changed.
+     * @param dirty is true for each changed Block of the image.
+     * @return the number of Blocks placed again.
+     */
+    private int rebuildChunk(BufferedImage image, int num, boolean[][] dirty) {
+        int changed = countDirtyBlocks(num, dirty);
+        if (changed == 0)
+            return 0;
+        int[] bounds = this.chunkBounds.get(num);
+        int firstX = bounds[0] / App.scale, firstY = bounds[1] / App.scale;
+        boolean[][] chunkDirty = new boolean[(int) Math.ceil((double) bounds[2] / App.scale)]
+                [(int) Math.ceil((double) bounds[3] / App.scale)];
+        for (int i = 0; i < chunkDirty.length; i++)
+            for (int k = 0; k < chunkDirty[i].length; k++)
+                chunkDirty[i][k] = dirty[firstX + i][firstY + k];
+
+        PixelBunch bunch = new PixelBunch(image.getSubimage(bounds[0], bounds[1], bounds[2], bounds[3]));
+        Block[][] blocks = Grid.createBlocks(bunch);
+        if (this.collider != null)
+            this.collider.apply(blocks, bounds[0], bounds[1]);
+        Grid grid = this.grids[num];
+        grid.rebuild(bunch, blocks, chunkDirty, block -> Main.placeBlock(grid, block, this.storyCap));
+        this.infos[num] = write(grid, bounds, num);
+        return changed;
+    }
+
+    /**
+     * @param dirty is true for each changed Block of the image.
+     * @return the number of changed Blocks in a chunk.
+     */
+    private int countDirtyBlocks(int num, boolean[][] dirty) {
+        int[] bounds = this.chunkBounds.get(num);
+        int firstX = bounds[0] / App.scale, firstY = bounds[1] / App.scale;
+        int lastX = (bounds[0] + bounds[2] - 1) / App.scale, lastY = (bounds[1] + bounds[3] - 1) / App.scale;
+        int changed = 0;
+        for (int i = firstX; i <= lastX; i++)
+            for (int k = firstY; k <= lastY; k++)
+                if (dirty[i][k])
+                    changed++;
+        return changed;
+    }
+
+    /**
+     * Compares an image with the last one generated a row at a time, keeping the new pixels.
+     * @return true for each Block of the image with a changed pixel, or null if no pixel changed.
+     */
+    private boolean[][] findDirtyBlocks(BufferedImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        boolean[][] dirty = new boolean[(int) Math.ceil((double) width / App.scale)]
+                [(int) Math.ceil((double) height / App.scale)];
+        boolean changed = false;
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int offset = y * width;
+            int x = Arrays.mismatch(row, 0, width, this.pixels, offset, offset + width);
+            if (x < 0)
+                continue;
+            changed = true;
+            while (x >= 0) {
+                dirty[x / App.scale][y / App.scale] = true;
+                // Carry on from the next Block
+                int next = (x / App.scale + 1) * App.scale;
+                int mismatch = next < width ? Arrays.mismatch(row, next, width, this.pixels, offset + next, offset + width) : -1;
+                x = mismatch < 0 ? -1 : next + mismatch;
+            }
+            System.arraycopy(row, 0, this.pixels, offset, width);
+        }
+        return changed ? dirty : null;
+    }
+
+    /**
+     * @return the size of the image, the options that change the output other than through the pixels, the triangle
+     * budget and where the kept geometry is stored.
+     */
+    private static String getSettings(int width, int height) {
+        return "size=" + width + "x" + height + " " + Main.getOutputOptions() + " budget=" + App.triangleBudget
+                + " offHeap=" + App.offHeap;
+    }
+
+    private ChunkInfo write(Grid grid, int[] bounds, int num) {
+        ChunkInfo info = grid.output(this.dir, num);
+        if (info != null)
+            info.setOrigin(bounds[0], bounds[1], bounds[2], bounds[3]);
+        return info;
+    }
+
+    private void closeGrids() {
+        if (this.grids != null)
+            for (Grid grid : this.grids)
+                if (grid != null)
+                    grid.close();
+        this.grids = null;
+        this.infos = null;
+    }
+
+    /**
+     * Releases the city kept in memory, so that the next generation starts from scratch.
+     */
+    public synchronized void clear() {
+        closeGrids();
+        this.pixels = null;
+        this.settings = null;
+        this.chunkBounds = null;
+        this.estimator = null;
+        this.collider = null;
+    }
+}
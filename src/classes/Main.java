@@ -17,130 +17,530 @@
 
 package classes;
 
-import Jcg.geometry.Point_3;
-import Jcg.triangulations2D.TriangulationDS_2;
 import gui.App;
 
+import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-
-import static Jcg.mesh.Triangulations_IO.getTriangleMeshFromFile;
-import static classes.Grid.*;
+import java.util.Locale;
+import java.util.stream.IntStream;
 
 /**
  * A program that, from an existing library of OFF files representing buildings of various shapes and sizes, generates
  * a city based on a top-down perspective map given as input in a bitmap image file.
  */
 public class Main {
-    private static int MAX_CHUNK_DIMENSION = 16;
+    private static final int MAX_CHUNK_DIMENSION = 16;
+
+    // Decimal places the output can be written with
+    public static final int MAX_PRECISION = FixedPointWriter.MAX_PRECISION;
+    static final String OPTIONS = "[--format off|obj|ply|stl]"
+            + " [--precision 0-" + MAX_PRECISION + "]"
+            + " [--cull]"
+            + " [--gzip]"
+            + " [--dry-run]"
+            + " [--budget triangles]"
+            + " [--merge]"
+            + " [--roads]"
+            + " [--collisions]"
+            + " [--vertex-cache]"
+            + " [--off-heap]"
+            + " [--journal]"
+            + " [--resume]";
 
-    public static void main(String[] args) { generate(); }
+    /**
+     * Generates the city of an image outside the UI.
+     * Usage: Main [options] [image]
+     *
+     * The options set the App fields of the same meaning, see parseOption(). The image is Input/input.png if none is
+     * given.
+     */
+    public static void main(String[] args) throws IOException {
+        String path = "Input/input.png";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                i = parseOption(args, i);
+                if (i < 0) {
+                    System.err.println("Usage: Main " + OPTIONS + " [image]");
+                    return;
+                }
+            } else {
+                path = args[i];
+            }
+        }
+        if (App.inputImage == null) {
+            App.inputImage = ImageIO.read(new File(path));
+            if (App.inputImage == null)
+                throw new IOException("Unsupported image format: " + path);
+            App.hasAlpha = App.inputImage.getColorModel().hasAlpha();
+        }
+        generate();
+    }
+
+    /**
+     * Sets the App field for a command line option:
+     *
+     * --format off|obj|ply|stl: the file format of the chunks
+     * --precision n:            the decimal places written for each coordinate
+     * --cull:                   removes hidden faces
+     * --gzip:                   compresses the chunks
+     * --dry-run:                only estimates the output
+     * --budget n:               limits the stories of the buildings to stay within n triangles
+     * --merge:                  writes the whole city to one mesh file
+     * --roads:                  generates roads
+     * --collisions:             leaves out overlapping buildings
+     * --vertex-cache:           reorders the buildings for the vertex cache
+     * --off-heap:               keeps the geometry off the Java heap
+     * --journal:                journals the run so that it can be resumed
+     * --resume:                 journals the run, keeping the chunks an earlier journaled run of the image completed
+     *
+     * @param args are the command line arguments.
+     * @param i is the index of the option.
+     * @return the index of the last argument used by the option, or -1 if it is unknown or its value is invalid.
+     */
+    static int parseOption(String[] args, int i) {
+        try {
+            switch (args[i]) {
+                case "--format":
+                    App.format = MeshFormat.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    return i;
+                case "--precision":
+                    int precision = Integer.parseInt(args[++i]);
+                    if (precision < 0 || precision > MAX_PRECISION)
+                        break;
+                    App.precision = precision;
+                    return i;
+                case "--cull":
+                    App.cullHiddenFaces = true;
+                    return i;
+                case "--gzip":
+                    App.compressOutput = true;
+                    return i;
+                case "--dry-run":
+                    App.dryRun = true;
+                    return i;
+                case "--budget":
+                    long budget = Long.parseLong(args[++i]);
+                    if (budget < 0)
+                        break;
+                    App.triangleBudget = budget;
+                    return i;
+                case "--merge":
+                    App.mergeChunks = true;
+                    return i;
+                case "--roads":
+                    App.generateRoads = true;
+                    return i;
+                case "--collisions":
+                    App.resolveCollisions = true;
+                    return i;
+                case "--vertex-cache":
+                    App.optimizeVertexCache = true;
+                    return i;
+                case "--off-heap":
+                    App.offHeap = true;
+                    return i;
+                case "--journal":
+                    App.journalRun = true;
+                    return i;
+                case "--resume":
+                    App.resume = true;
+                    App.journalRun = true;
+                    return i;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return -1;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.err.println("Missing value for " + args[i - 1]);
+            return -1;
+        } catch (IllegalArgumentException e) {
+            // Also thrown for numbers that cannot be parsed
+        }
+        System.err.println("Invalid value for " + args[i - 1] + ": " + args[i]);
+        return -1;
+    }
 
     /**
      * Main generator function. Called directly from UI.
      */
     public static void generate() {
-        ArrayList<BufferedImage> imageChunks = new ArrayList<>();
-        BufferedImage image = App.inputImage;
-        MAX_CHUNK_DIMENSION *= App.scale;
-        // Seperate the image into chunks for more efficient rendering
-        if (image.getHeight() > MAX_CHUNK_DIMENSION && image.getWidth() > MAX_CHUNK_DIMENSION)
-            for (int x = 0; x < image.getWidth(); x += MAX_CHUNK_DIMENSION) {
+        generate(App.inputImage, null);
+    }
+
+    /**
+     * Generates the city for an image.
+     * @param image is the input image.
+     * @param dir is the directory to write the chunks and manifest to, or null for the working directory.
+     * @return the manifest of the written chunks, or null if no chunks were written.
+     */
+    static ChunkManifest generate(BufferedImage image, File dir) {
+        ArrayList<int[]> chunkBounds = splitChunks(image);
+        ChunkManifest manifest = new ChunkManifest();
+
+        // Estimate the size of the output before generating, limiting the stories of the buildings to meet the budget
+        int storyCap = planStories(image, chunkBounds);
+        if (storyCap < 0)
+            return null;
+        FootprintCollider collider = resolveCollisions(image, storyCap);
+
+        if (App.mergeChunks) {
+            try {
+                File file = generateMerged(image, chunkBounds, storyCap, collider, dir);
+                print("Wrote " + file + " (" + file.length() + " bytes)");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            print("Finished!");
+            return null;
+        }
+
+        // Render chunks, skipping those an earlier run completed
+        try (RunJournal journal = openJournal(dir, image, storyCap)) {
+            for (int num = 0; num < chunkBounds.size(); num++) {
+                int[] bounds = chunkBounds.get(num);
+                ChunkInfo info = journal != null ? journal.getCompleted(num, bounds) : null;
+                if (info != null) {
+                    print("Chunk " + num + " was completed by an earlier run");
+                    manifest.add(info);
+                    continue;
+                }
+                print("BEGINNING CHUNK RENDER: (" + num + ")");
+                info = renderChunk(image, bounds, num, storyCap, collider, dir);
+                if (info == null)
+                    continue;
+                manifest.add(info);
+                if (journal != null)
+                    journal.complete(info);
+            }
+        }
+        try {
+            manifest.write(new File(dir, ChunkManifest.MANIFEST_FILE));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        print("Finished!");
+        return manifest;
+    }
+
+    /**
+     * Opens the journal of a run when App.journalRun is set.
+     * @return the journal, or null if the run is not journaled or the journal could not be opened.
+     */
+    private static RunJournal openJournal(File dir, BufferedImage image, int storyCap) {
+        if (!App.journalRun)
+            return null;
+        try {
+            return new RunJournal(dir, image, storyCap);
+        } catch (IOException e) {
+            print("Could not open the run journal, continuing without it: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Estimates the size of the output before generating when App.dryRun or App.triangleBudget is set, limiting the
+     * stories of the buildings to meet the budget. Every building is counted, even those that collisions would leave
+     * out, so the estimate never falls short of the output.
+     * @param image is the input image.
+     * @param chunkBounds holds the {x, y, width, height} of each chunk.
+     * @return the highest number of stories (0-9) buildings are allowed, or -1 for a dry run.
+     */
+    static int planStories(BufferedImage image, ArrayList<int[]> chunkBounds) {
+        int storyCap = MeshLibrary.NUM_STORIES - 1;
+        if (App.dryRun || App.triangleBudget > 0) {
+            CostEstimator estimator = new CostEstimator(image, chunkBounds, null);
+            storyCap = capStories(estimator);
+            estimator.print(storyCap);
+            if (App.dryRun) {
+                print("Dry run finished, no geometry was generated.");
+                return -1;
+            }
+        }
+        return storyCap;
+    }
+
+    /**
+     * Limits the stories of the buildings to meet App.triangleBudget, if one is set.
+     * @param estimator has laid out every building of the image.
+     * @return the highest number of stories (0-9) buildings are allowed.
+     */
+    static int capStories(CostEstimator estimator) {
+        if (App.triangleBudget <= 0)
+            return MeshLibrary.NUM_STORIES - 1;
+        int storyCap = estimator.getStoryCap(App.triangleBudget);
+        if (storyCap < MeshLibrary.NUM_STORIES - 1)
+            print("Limiting buildings to " + (storyCap + 1) + " stories to stay within " + App.triangleBudget + " triangles");
+        return storyCap;
+    }
+
+    /**
+     * Finds the buildings to leave out when App.resolveCollisions is set.
+     * @param image is the input image.
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed.
+     * @return the collider, or null if every building is kept.
+     */
+    static FootprintCollider resolveCollisions(BufferedImage image, int storyCap) {
+        if (!App.resolveCollisions)
+            return null;
+        FootprintCollider collider = new FootprintCollider(image, storyCap);
+        print("Leaving out " + collider.getCollisionCount() + " overlapping buildings");
+        return collider;
+    }
+
+    /**
+     * Generates the whole city into a single mesh file. The counts of every chunk are found first, from the library
+     * metadata or, when hidden faces are culled, by building the chunk. A prefix sum of the counts gives each chunk the
+     * position of its vertices and triangles in the file, and the chunks are then built and written in parallel.
+     * The ground and roads of the whole image are written as single sections, so that they are welded across chunk
+     * seams.
+     * @param image is the input image.
+     * @param chunkBounds holds the {x, y, width, height} of each chunk.
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed.
+     * @param collider leaves out overlapping buildings, or is null to keep every building.
+     * @param dir is the directory to write to, or null for the working directory.
+     * @return the written file.
+     * @throws IOException if a chunk could not be built or the file could not be written, in which case no file is
+     * left behind.
+     */
+    static File generateMerged(BufferedImage image, ArrayList<int[]> chunkBounds, int storyCap,
+                               FootprintCollider collider, File dir) throws IOException {
+        if (App.compressOutput)
+            print("Merged output is written uncompressed so that chunks can be written in parallel");
+        // Sections are the ground, the roads, then the buildings of each chunk
+        int chunks = chunkBounds.size();
+        long[][] counts = new long[chunks + 2][];
+        if (App.cullHiddenFaces) {
+            // Culling depends on the placed geometry, so each chunk is built once just to be counted
+            forEachChunk(chunks, num -> {
+                Grid grid = buildChunk(image, chunkBounds.get(num), storyCap, collider, false, false);
+                if (grid == null)
+                    throw new IOException("Chunk " + num + " could not be read");
+                MeshBuffer buildings = grid.getBuildings();
+                counts[num + 2] = new long[]{buildings.getVertexCount(), buildings.getFaceCount()};
+                grid.close();
+            });
+        } else {
+            CostEstimator estimator = new CostEstimator(image, chunkBounds, collider);
+            for (int num = 0; num < chunks; num++)
+                counts[num + 2] = estimator.getBuildingCounts(num, storyCap);
+        }
+        int width = image.getWidth(), height = image.getHeight();
+        MeshBuffer ground = MeshBuffer.create();
+        MeshBuffer roads = MeshBuffer.create();
+        RoadNetwork network = App.generateRoads
+                ? new RoadNetwork(Grid.createBlocks(new PixelBunch(image)), width, height) : null;
+        Grid.constructWeldedGround(ground, width, height, network);
+        if (network != null)
+            network.write(roads);
+        counts[0] = new long[]{ground.getVertexCount(), ground.getFaceCount()};
+        counts[1] = new long[]{roads.getVertexCount(), roads.getFaceCount()};
+        long[] firstVertex = new long[chunks + 3];
+        long[] firstFace = new long[chunks + 3];
+        for (int s = 0; s < chunks + 2; s++) {
+            firstVertex[s + 1] = firstVertex[s] + counts[s][0];
+            firstFace[s + 1] = firstFace[s] + counts[s][1];
+        }
+
+        File file = new File(dir, MergedCityWriter.OUT_FILE + "." + App.format.getExtension());
+        File part = new File(dir, file.getName() + RunJournal.PART_SUFFIX);
+        // Far larger than any coordinate, buildings do not reach more than a few sectors past the edge of the image
+        double maxCoordinate = 10 * Grid.SECTION_SIZE * (Math.max(width, height) + 1);
+        try {
+            try (MergedCityWriter writer = new MergedCityWriter(part, App.format, firstVertex[chunks + 2],
+                    firstFace[chunks + 2], maxCoordinate)) {
+                writer.write(ground, firstVertex[0], firstFace[0], 0, 0);
+                writer.write(roads, firstVertex[1], firstFace[1], 0, 0);
+                forEachChunk(chunks, num -> {
+                    int[] bounds = chunkBounds.get(num);
+                    Grid grid = buildChunk(image, bounds, storyCap, collider, false, false);
+                    if (grid == null)
+                        throw new IOException("Chunk " + num + " could not be read");
+                    try {
+                        MeshBuffer buildings = grid.getBuildings();
+                        if (buildings.getVertexCount() != counts[num + 2][0]
+                                || buildings.getFaceCount() != counts[num + 2][1])
+                            throw new IOException("Chunk " + num + " does not match its expected size");
+                        writer.write(buildings, firstVertex[num + 2], firstFace[num + 2],
+                                Grid.SECTION_SIZE * bounds[0], -Grid.SECTION_SIZE * bounds[1]);
+                    } finally {
+                        grid.close();
+                    }
+                });
+            }
+            RunJournal.commit(part, file);
+        } finally {
+            ground.close();
+            roads.close();
+            // Gone once renamed into place, left over only if writing failed
+            part.delete();
+        }
+        return file;
+    }
+
+    /** Work done on one chunk of the image, which may fail while writing. */
+    private interface ChunkTask {
+        void run(int num) throws IOException;
+    }
+
+    /**
+     * Runs a task for every chunk in parallel.
+     * @param chunks is the number of chunks.
+     * @param task is run once with the number of each chunk.
+     * @throws IOException if the task failed for any chunk, the first failure is thrown once all tasks stopped.
+     */
+    private static void forEachChunk(int chunks, ChunkTask task) throws IOException {
+        try {
+            IntStream.range(0, chunks).parallel().forEach(num -> {
+                try {
+                    task.run(num);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Builds the city for one chunk of the image and writes it to a mesh file.
+     * @param image is the input image.
+     * @param bounds is the {x, y, width, height} of the chunk in the image.
+     * @param num is the number of the chunk.
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed.
+     * @param collider leaves out overlapping buildings, or is null to keep every building.
+     * @param dir is the directory to write to, or null for the working directory.
+     * @return the description of the written file, or null if it could not be written.
+     */
+    static ChunkInfo renderChunk(BufferedImage image, int[] bounds, int num, int storyCap, FootprintCollider collider, File dir) {
+        Grid grid = buildChunk(image, bounds, storyCap, collider, true, false);
+        if (grid == null)
+            return null;
+        // Output the polyhedron to a mesh file and free the chunk's geometry
+        ChunkInfo info = grid.output(dir, num);
+        grid.close();
+        if (info != null)
+            info.setOrigin(bounds[0], bounds[1], bounds[2], bounds[3]);
+        return info;
+    }
+
+    /**
+     * Places the buildings of one chunk of the image.
+     * @param image is the input image.
+     * @param bounds is the {x, y, width, height} of the chunk in the image.
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed.
+     * @param collider leaves out overlapping buildings, or is null to keep every building.
+     * @param ground is true to build the ground and roads of the chunk as well as its buildings.
+     * @param editable is true to keep the grid for Grid.rebuild(), leaving room after each Block.
+     * @return the grid holding the chunk's geometry, to be closed by the caller, or null if the image could not be
+     * read.
+     */
+    static Grid buildChunk(BufferedImage image, int[] bounds, int storyCap, FootprintCollider collider, boolean ground,
+                           boolean editable) {
+        BufferedImage chunk = image.getSubimage(bounds[0], bounds[1], bounds[2], bounds[3]);
+
+        // Build the pixel bunch
+        PixelBunch pixelBunch = new PixelBunch(chunk);
+        if (!pixelBunch.isInitialized()) {
+            print("Input Error: Image could not be read properly.");
+            return null;
+        }
+        // Declare objects
+        Grid grid = new Grid(pixelBunch, ground, editable);
+        Block[][] blocks = grid.getBlocks();
+        if (collider != null)
+            collider.apply(blocks, bounds[0], bounds[1]);
+        // For every pixel in each block
+        for (int i = 0; i < blocks.length; i++) {
+            for (int k = 0; k < blocks[i].length; k++) {
+                trace("(x" + i + ", y:" + k + ")");
+                placeBlock(grid, blocks[i][k], storyCap);
+            }
+        }
+        if (App.cullHiddenFaces)
+            print("Culled " + grid.getCulledFaceCount() + " hidden triangles");
+        if (App.optimizeVertexCache) {
+            double[] acmr = grid.getCacheMissRatios();
+            print(String.format(Locale.ROOT, "Vertex cache misses per triangle (ACMR): %.3f before reordering, %.3f after",
+                    acmr[0], acmr[1]));
+        }
+        return grid;
+    }
+
+    /**
+     * Places the buildings of one Block and ends the Block.
+     * @param grid is the grid to place into.
+     * @param block is the Block.
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed.
+     */
+    static void placeBlock(Grid grid, Block block, int storyCap) {
+        Prototype prototype;
+        for (int x = 0; x < Block.SIZE; x++) {
+            for (int y = 0; y < Block.SIZE; y++) {
+                trace("Reading pixel data");
+                Building building = block.getBuilding(x, y);
+                trace("Check building availability");
+                if (block.isEnabled(x, y)) {
+                    trace("Importing mesh");
+                    prototype = MeshLibrary.get(building.getShapeType(), Math.min(block.getNumStories(), storyCap));
+                    trace("Placing mesh");
+                    grid.place(prototype, building.getAngle(), block.getX(), block.getY(),
+                            block.getElevation() * MeshLibrary.UNIT_SCALE, building.getOffset());
+                } else {
+                    trace("Space restricted, moving to next building");
+                }
+            }
+        }
+        grid.endBlock();
+    }
+
+    /**
+     * Separates the image into chunks for more efficient rendering. Chunks are MAX_CHUNK_DIMENSION sectors wide and
+     * high, except for those at the right and bottom edges.
+     * @param image is the input image.
+     * @return the {x, y, width, height} of each chunk in the image, in the order the chunks are numbered.
+     */
+    static ArrayList<int[]> splitChunks(BufferedImage image) {
+        ArrayList<int[]> chunks = new ArrayList<>();
+        int dimension = MAX_CHUNK_DIMENSION * App.scale;
+        if (image.getHeight() > dimension && image.getWidth() > dimension)
+            for (int x = 0; x < image.getWidth(); x += dimension) {
                 int width;
-                if (image.getWidth() - x < MAX_CHUNK_DIMENSION)
+                if (image.getWidth() - x < dimension)
                     width = image.getWidth() - x;
                 else
-                    width = MAX_CHUNK_DIMENSION;
-                for (int y = 0; y < image.getHeight(); y += MAX_CHUNK_DIMENSION) {
+                    width = dimension;
+                for (int y = 0; y < image.getHeight(); y += dimension) {
                     int height;
-                    if (image.getHeight() - y < MAX_CHUNK_DIMENSION)
+                    if (image.getHeight() - y < dimension)
                         height = image.getHeight() - y;
                     else
-                        height = MAX_CHUNK_DIMENSION;
-                    imageChunks.add(image.getSubimage(x, y, width, height));
+                        height = dimension;
+                    chunks.add(new int[]{x, y, width, height});
                 }
             }
         else
-            imageChunks.add(image);
-
-        // Render chunks
-        for (int num = 0; num < imageChunks.size(); num++) {
-            BufferedImage chunk = imageChunks.get(num);
-            print("BEGINNING CHUNK RENDER: (" + num + ")");
-
-            // Build the pixel bunch
-            PixelBunch pixelBunch = new PixelBunch(chunk);
-            if (!pixelBunch.isInitialized()) {
-                print("Input Error: Image could not be read properly.");
-                return;
-            }
-            // Declare objects
-            Grid grid = new Grid(pixelBunch);
-            TriangulationDS_2<Point_3> importPoly;
-            Block[][] blocks = grid.getBlocks();
-            // For every pixel in each block
-            for (int i = 0; i < blocks.length; i++) {
-                for (int k = 0; k < blocks[i].length; k++) {
-                    print("(x" + i + ", y:" + k + ")");
-                    for (int x = 0; x < blocks[i][k].buildings.length; x++) {
-                        for (int y = 0; y < blocks[i][k].buildings[x].length; y++) {
-                            print("Reading pixel data");
-                            Building building = blocks[i][k].getBuilding(x, y);
-                            print("Check building availability");
-                            if (building.isEnabled()) {
-                                print("Importing mesh");
-                                importPoly = getTriangleMeshFromFile(building.getFileName());
-                                print("Scale the building down to unit size");
-                                scale(importPoly, 0.005);
-                                building.setZ(building.getZ() * 0.005);
-                                print("Scale the building back up to the appropriate level");
-                                scale(importPoly, App.scale);
-                                print("Normalize the rotation of the building");
-                                normalizeRotation(importPoly, building.getShapeType());
-                                print("Rotate the requested angle");
-                                rotate(importPoly, building.getAngle());
-                                print("Translating mesh");
-                                translate(importPoly, building.getX(), building.getY(), building.getZ(), building.getOffset());
-                                print("Combining mesh");
-                                grid.append(importPoly);
-                            } else {
-                                print("Space restricted, moving to next building");
-                            }
-                        }
-                    }
-                }
-            }
-            // Output the polyhedron to an OFF mesh
-            grid.output(num);
-        }
-        print("Finished!");
+            chunks.add(new int[]{0, 0, image.getWidth(), image.getHeight()});
+        return chunks;
     }
 
     /**
-     * Sets the base rotation of each building such that all buildings have their doors facing the same direction
-     * (north) via the rotate method.
-     * 3 sided buildings must be rotated 120 degrees.
-     * 5 sided buildings must be rotated 72 degrees twice (144 degrees).
-     * @param triangulationDS2 is the building to normalize.
-     * @param shapeType determines the angle of rotation required for normalization.
+     * Describes the options that change the files a run writes, other than the input image and the story limit, along
+     * with the library meshes in use. The run journal and the incremental city both compare these to tell whether
+     * earlier output can be kept.
+     * @return the options as space separated name=value pairs.
      */
-    private static void normalizeRotation(TriangulationDS_2<Point_3> triangulationDS2, int shapeType) {
-        switch (shapeType) {
-            case 0:
-            case 1:
-                rotate(triangulationDS2, 90);
-                break;
-            case 2:
-                rotate(triangulationDS2, 234);
-                break;
-            case 3:
-                rotate(triangulationDS2, 210);
-                break;
-            default:
-                break;
-        }
+    static String getOutputOptions() {
+        return "scale=" + App.scale + " alpha=" + App.hasAlpha + " format=" + App.format.getExtension()
+                + " precision=" + App.precision + " cull=" + App.cullHiddenFaces + " gzip=" + App.compressOutput
+                + " collisions=" + App.resolveCollisions + " roads=" + App.generateRoads
+                + " vertexCache=" + App.optimizeVertexCache + " library=" + MeshLibrary.getFingerprint();
     }
 
     /**
@@ -153,4 +553,13 @@ public class Main {
     public static void print(int i) {
         print(String.valueOf(i));
     }
+
+    /**
+     * Prints the progress of a chunk through each building, unless App.verbose is turned off.
+     * @param str is the string to output.
+     */
+    static void trace(String str) {
+        if (App.verbose)
+            print(str);
+    }
 }
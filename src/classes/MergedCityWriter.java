@@ -0,0 +1,288 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the whole city into one mesh file from many threads at once. The vertex and face counts are known before
+ * anything is written, and every vertex and face record has the same size, so the position of each section of the
+ * mesh in the file is known up front and sections can be written in any order.
+ *
+ * PLY and STL records are fixed size already. OFF and OBJ records are made fixed size by padding every number with
+ * leading spaces to the width of the widest number that can occur, which both formats allow.
+ */
+class MergedCityWriter implements Closeable {
+    static final String OUT_FILE = "city";
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String STL_HEADER = "Procedural City Generator";
+    private static final int STL_HEADER_SIZE = 80;
+    private final MeshFormat format;
+    private final FileChannel channel;
+    private final long vertexStart, faceStart;
+    private final int vertexSize, faceSize;
+    // Text formats only: the width of each coordinate and vertex index
+    private final int coordinateWidth, indexWidth;
+    private final long unit;
+
+    /**
+     * Creates the file at its full size and writes the header. Nothing is written if the counts do not fit the format.
+     * @param file is the file to write.
+     * @param format is the format of the file.
+     * @param vertexCount is the number of vertices in the city.
+     * @param faceCount is the number of triangles in the city.
+     * @param maxCoordinate is larger than the absolute value of any coordinate in the city.
+     * @throws IOException if the file cannot be created, or the counts are too large for the format.
+     */
+    MergedCityWriter(File file, MeshFormat format, long vertexCount, long faceCount, double maxCoordinate) throws IOException {
+        this.format = format;
+        this.unit = (long) Math.pow(10, App.precision);
+        // Sign, integer digits, then the point and decimals
+        this.coordinateWidth = 1 + digits((long) Math.ceil(maxCoordinate)) + (App.precision > 0 ? 1 + App.precision : 0);
+        this.indexWidth = digits(Math.max(vertexCount, 1));
+        byte[] header;
+        switch (format) {
+            case OBJ:
+                header = ("# Procedural City Generator\n# " + vertexCount + " vertices, " + faceCount + " faces\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+                this.vertexSize = 2 + 3 * this.coordinateWidth + 3;
+                this.faceSize = 2 + 3 * this.indexWidth + 3;
+                break;
+            case PLY:
+                // Vertex indices are written as signed 32-bit ints
+                if (vertexCount > Integer.MAX_VALUE)
+                    throw new IOException("Too many vertices for PLY: " + vertexCount);
+                header = ("ply\n" +
+                        "format binary_little_endian 1.0\n" +
+                        "comment Procedural City Generator\n" +
+                        "element vertex " + vertexCount + "\n" +
+                        "property float x\n" +
+                        "property float y\n" +
+                        "property float z\n" +
+                        "element face " + faceCount + "\n" +
+                        "property list uchar int vertex_indices\n" +
+                        "end_header\n").getBytes(StandardCharsets.US_ASCII);
+                this.vertexSize = 3 * Float.BYTES;
+                this.faceSize = 1 + 3 * Integer.BYTES;
+                break;
+            case STL:
+                // The triangle count is an unsigned 32-bit int, but many readers take it as signed
+                if (faceCount > Integer.MAX_VALUE)
+                    throw new IOException("Too many triangles for STL: " + faceCount);
+                header = new byte[STL_HEADER_SIZE + Integer.BYTES];
+                ByteBuffer stl = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                stl.put(STL_HEADER.getBytes(StandardCharsets.US_ASCII));
+                while (stl.position() < STL_HEADER_SIZE)
+                    stl.put((byte) ' ');
+                stl.putInt((int) faceCount);
+                // Triangles carry their own corners
+                this.vertexSize = 0;
+                this.faceSize = 12 * Float.BYTES + Short.BYTES;
+                break;
+            case OFF:
+            default:
+                header = ("OFF\n" + vertexCount + " " + faceCount + " 0\n").getBytes(StandardCharsets.US_ASCII);
+                this.vertexSize = 3 * this.coordinateWidth + 3;
+                this.faceSize = 2 + 3 * this.indexWidth + 3;
+                break;
+        }
+        this.vertexStart = header.length;
+        this.faceStart = this.vertexStart + vertexCount * this.vertexSize;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(this.faceStart + faceCount * this.faceSize);
+            this.channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            for (long position = 0; buffer.hasRemaining(); )
+                position += this.channel.write(buffer, position);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes one section of the city. Sections may be written from different threads at the same time.
+     * @param m holds the section's geometry.
+     * @param firstVertex is the index in the city of the section's first vertex.
+     * @param firstFace is the index in the city of the section's first triangle.
+     * @param dx is the translation along x from the section's coordinates to the city's.
+     * @param dy is the translation along y from the section's coordinates to the city's.
+     */
+    void write(MeshBuffer m, long firstVertex, long firstFace, double dx, double dy) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (this.vertexSize > 0) {
+            long position = this.vertexStart + firstVertex * this.vertexSize;
+            for (int v = 0; v < m.getVertexCount(); v++) {
+                if (buffer.remaining() < this.vertexSize)
+                    position = flush(buffer, position);
+                putVertex(buffer, m.getX(v) + dx, m.getY(v) + dy, m.getZ(v));
+            }
+            flush(buffer, position);
+        }
+        long position = this.faceStart + firstFace * this.faceSize;
+        for (int f = 0; f < m.getFaceCount(); f++) {
+            if (buffer.remaining() < this.faceSize)
+                position = flush(buffer, position);
+            if (this.format == MeshFormat.STL)
+                putTriangle(buffer, m, f, dx, dy);
+            else
+                putFace(buffer, firstVertex + m.getFaceVertex(f, 0), firstVertex + m.getFaceVertex(f, 1),
+                        firstVertex + m.getFaceVertex(f, 2));
+        }
+        flush(buffer, position);
+    }
+
+    private void putVertex(ByteBuffer buffer, double x, double y, double z) {
+        if (this.format == MeshFormat.PLY) {
+            buffer.putFloat((float) x);
+            buffer.putFloat((float) y);
+            buffer.putFloat((float) z);
+            return;
+        }
+        if (this.format == MeshFormat.OBJ)
+            buffer.put((byte) 'v').put((byte) ' ');
+        putFixed(buffer, x);
+        buffer.put((byte) ' ');
+        putFixed(buffer, y);
+        buffer.put((byte) ' ');
+        putFixed(buffer, z);
+        buffer.put((byte) '\n');
+    }
+
+    private void putFace(ByteBuffer buffer, long a, long b, long c) {
+        if (this.format == MeshFormat.PLY) {
+            buffer.put((byte) 3);
+            buffer.putInt(Math.toIntExact(a));
+            buffer.putInt(Math.toIntExact(b));
+            buffer.putInt(Math.toIntExact(c));
+            return;
+        }
+        // OBJ indices start from 1
+        long base = this.format == MeshFormat.OBJ ? 1 : 0;
+        buffer.put((byte) (this.format == MeshFormat.OBJ ? 'f' : '3')).put((byte) ' ');
+        putIndex(buffer, a + base);
+        buffer.put((byte) ' ');
+        putIndex(buffer, b + base);
+        buffer.put((byte) ' ');
+        putIndex(buffer, c + base);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes an STL facet, with its normal found the same way StlSink finds it.
+     */
+    private static void putTriangle(ByteBuffer buffer, MeshBuffer m, int f, double dx, double dy) {
+        int a = m.getFaceVertex(f, 0), b = m.getFaceVertex(f, 1), c = m.getFaceVertex(f, 2);
+        float ax = (float) (m.getX(a) + dx), ay = (float) (m.getY(a) + dy), az = (float) m.getZ(a);
+        float bx = (float) (m.getX(b) + dx), by = (float) (m.getY(b) + dy), bz = (float) m.getZ(b);
+        float cx = (float) (m.getX(c) + dx), cy = (float) (m.getY(c) + dy), cz = (float) m.getZ(c);
+        float ux = bx - ax, uy = by - ay, uz = bz - az;
+        float vx = cx - ax, vy = cy - ay, vz = cz - az;
+        float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length > 0) {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+        }
+        buffer.putFloat(nx).putFloat(ny).putFloat(nz);
+        buffer.putFloat(ax).putFloat(ay).putFloat(az);
+        buffer.putFloat(bx).putFloat(by).putFloat(bz);
+        buffer.putFloat(cx).putFloat(cy).putFloat(cz);
+        buffer.putShort((short) 0);
+    }
+
+    /**
+     * Writes a decimal rounded to App.precision, right aligned in a field of coordinateWidth characters.
+     */
+    private void putFixed(ByteBuffer buffer, double value) {
+        long scaled = Math.round(Math.abs(value) * this.unit);
+        // Values that round to zero are written without a sign
+        boolean negative = value < 0 && scaled != 0;
+        int start = buffer.position();
+        int p = start + this.coordinateWidth - 1;
+        for (int i = 0; i < App.precision; i++) {
+            buffer.put(p--, (byte) ('0' + scaled % 10));
+            scaled /= 10;
+        }
+        if (App.precision > 0)
+            buffer.put(p--, (byte) '.');
+        p = putDigits(buffer, p, scaled, start);
+        if (negative) {
+            if (p < start)
+                throw new IllegalStateException("Coordinate too wide for its field: " + value);
+            buffer.put(p--, (byte) '-');
+        }
+        while (p >= start)
+            buffer.put(p--, (byte) ' ');
+        buffer.position(start + this.coordinateWidth);
+    }
+
+    /**
+     * Writes a vertex index right aligned in a field of indexWidth characters.
+     */
+    private void putIndex(ByteBuffer buffer, long value) {
+        int start = buffer.position();
+        int p = putDigits(buffer, start + this.indexWidth - 1, value, start);
+        while (p >= start)
+            buffer.put(p--, (byte) ' ');
+        buffer.position(start + this.indexWidth);
+    }
+
+    /**
+     * Writes the digits of a number backwards from a position.
+     * @return the position before the first digit.
+     */
+    private static int putDigits(ByteBuffer buffer, int p, long value, int start) {
+        do {
+            if (p < start)
+                throw new IllegalStateException("Number too wide for its field: " + value);
+            buffer.put(p--, (byte) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+        return p;
+    }
+
+    private long flush(ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            position += this.channel.write(buffer, position);
+        buffer.clear();
+        return position;
+    }
+
+    private static int digits(long value) {
+        return Long.toString(Math.max(value, 0)).length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import gui.App;
+
+/**
+ * A growable triangle mesh of packed vertex coordinates and face indices. A mesh holds its storage until it is closed,
+ * after which it must not be used.
+ */
+abstract class MeshBuffer implements AutoCloseable {
+
+    /**
+     * Creates an empty mesh, kept off the Java heap when App.offHeap is set.
+     * @return a new mesh.
+     */
+    static MeshBuffer create() {
+        return App.offHeap ? new DirectMeshBuffer() : new HeapMeshBuffer();
+    }
+
+    /**
+     * Adds a vertex to the mesh.
+     * @return the index of the new vertex.
+     */
+    abstract int addVertex(double x, double y, double z);
+
+    /**
+     * Adds the first n vertices of separate coordinate arrays to the mesh.
+     * @return the index of the first new vertex.
+     */
+    int addVertices(double[] x, double[] y, double[] z, int n) {
+        int first = getVertexCount();
+        for (int v = 0; v < n; v++)
+            addVertex(x[v], y[v], z[v]);
+        return first;
+    }
+
+    /**
+     * Moves an existing vertex.
+     * @param v is the index of the vertex.
+     */
+    abstract void setVertex(int v, double x, double y, double z);
+
+    /**
+     * Adds a triangle to the mesh from the indices of its three vertices.
+     */
+    abstract void addFace(int a, int b, int c);
+
+    /**
+     * Replaces the vertices of an existing triangle.
+     * @param f is the index of the face.
+     */
+    abstract void setFace(int f, int a, int b, int c);
+
+    /**
+     * Drops the vertices and faces from the given counts onwards.
+     * @param vertexCount is the number of vertices to keep.
+     * @param faceCount is the number of faces to keep.
+     */
+    abstract void truncate(int vertexCount, int faceCount);
+
+    abstract int getVertexCount();
+
+    abstract int getFaceCount();
+
+    abstract double getX(int v);
+
+    abstract double getY(int v);
+
+    abstract double getZ(int v);
+
+    /**
+     * @param f is the index of the face.
+     * @param i is the corner of the face (0-2).
+     * @return the index of the vertex at the given corner of the face.
+     */
+    abstract int getFaceVertex(int f, int i);
+
+    /**
+     * Releases the storage held by the mesh.
+     */
+    @Override
+    public void close() {
+    }
+}
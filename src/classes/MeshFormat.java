@@ -0,0 +1,60 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import gui.App;
+
+import java.io.OutputStream;
+
+/**
+ * The file formats that generated meshes can be written in.
+ */
+public enum MeshFormat {
+    OFF("off"),
+    OBJ("obj"),
+    PLY("ply"),
+    STL("stl");
+
+    private final String extension;
+
+    MeshFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Creates a sink that streams a mesh into the given output in this format.
+     * @param out is the stream to write to. It is closed along with the sink.
+     * @return a new sink.
+     */
+    MeshSink createSink(OutputStream out) {
+        switch (this) {
+            case OBJ:
+                return new ObjSink(out, App.precision);
+            case PLY:
+                return new PlySink(out);
+            case STL:
+                return new StlSink(out);
+            case OFF:
+            default:
+                return new OffSink(out, App.precision);
+        }
+    }
+}
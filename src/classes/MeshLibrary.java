@@ -0,0 +1,238 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The library of building meshes. Each mesh is normalized into a Prototype once and then shared by every building of
+ * the same shape and number of stories. When an up to date library pack exists the prototypes are mapped straight from
+ * it, otherwise each one is read from its OFF file the first time it is requested. Prototypes are looked up without
+ * locking, so that threads placing buildings at the same time do not wait on each other.
+ */
+class MeshLibrary {
+    // Scale applied to the library meshes to bring them down to unit size
+    static final double UNIT_SCALE = 0.005;
+    static final int NUM_SHAPE_TYPES = 4;
+    static final int NUM_STORIES = 10;
+    static final String LIBRARY_DIR = "meshes/library-clean/";
+    static final String PACK_FILE = "meshes/library.pack";
+    // Prototypes loaded so far, by shapeType * NUM_STORIES + numStories
+    private static final ConcurrentHashMap<Integer, Prototype> prototypes = new ConcurrentHashMap<>();
+    // The prototypes reordered for the vertex cache, by the prototype they were made from
+    private static final ConcurrentHashMap<Prototype, Prototype> optimized = new ConcurrentHashMap<>();
+    // Descriptions of buildings read from OFF files without keeping their geometry, by the same key as the prototypes
+    private static final ConcurrentHashMap<Integer, PrototypeInfo> infos = new ConcurrentHashMap<>();
+
+    private MeshLibrary() {
+    }
+
+    /**
+     * Holds the library pack, which is opened the first time it is needed.
+     */
+    private static class PackHolder {
+        // The pack, or null if there is no usable pack
+        static final MeshPack PACK = openPack();
+    }
+
+    /**
+     * Returns the normalized prototype for a shape and number of stories, loading it on first use.
+     * @param shapeType is the shape of the building.
+     * @param numStories is the number of stories of the building.
+     * @return the shared prototype.
+     */
+    static Prototype get(int shapeType, int numStories) {
+        Integer key = shapeType * NUM_STORIES + numStories;
+        Prototype p = prototypes.get(key);
+        if (p != null)
+            return p;
+        return prototypes.computeIfAbsent(key, k -> {
+            MeshPack pack = PackHolder.PACK;
+            Prototype mapped = pack != null ? pack.get(shapeType, numStories) : null;
+            return mapped != null ? mapped : load(getFileName(shapeType, numStories), shapeType);
+        });
+    }
+
+    /**
+     * Returns a prototype with its triangles and vertices reordered for the vertex cache, see VertexCacheOptimizer.
+     * The reordered prototype is made once and shared.
+     * @param prototype is a prototype from the library.
+     * @return the reordered prototype.
+     */
+    static Prototype getOptimized(Prototype prototype) {
+        Prototype p = optimized.get(prototype);
+        if (p != null)
+            return p;
+        return optimized.computeIfAbsent(prototype, q -> VertexCacheOptimizer.optimize(q.getVertices(), q.getFaces()));
+    }
+
+    /**
+     * Describes a building without keeping its geometry when it has not been loaded yet. The description comes from
+     * the library pack if there is one, otherwise the OFF file is read once and only its description is kept.
+     * @param shapeType is the shape of the building.
+     * @param numStories is the number of stories of the building.
+     * @return the counts, height and footprint of the building.
+     */
+    static PrototypeInfo getInfo(int shapeType, int numStories) {
+        Integer key = shapeType * NUM_STORIES + numStories;
+        Prototype p = prototypes.get(key);
+        if (p != null)
+            return p.getInfo();
+        MeshPack pack = PackHolder.PACK;
+        PrototypeInfo info = pack != null ? pack.getInfo(shapeType, numStories) : null;
+        if (info != null)
+            return info;
+        info = infos.get(key);
+        if (info != null)
+            return info;
+        return infos.computeIfAbsent(key, k -> {
+            OffReader mesh = read(getFileName(shapeType, numStories));
+            return PrototypeInfo.measure(FloatBuffer.wrap(normalize(mesh.getVertices(), shapeType)),
+                    mesh.getFaces().length / 3);
+        });
+    }
+
+    /**
+     * @return the OFF file in the library holding the given building.
+     */
+    static String getFileName(int shapeType, int numStories) {
+        return LIBRARY_DIR + "CGAL_mesh_" + shapeType + "_" + numStories + ".off";
+    }
+
+    /**
+     * Hashes the meshes of the library, so that output generated from other meshes is not mistaken for current output.
+     * The pack is built from the OFF files, so those are hashed when there are any and the pack otherwise.
+     * @return the SHA-256 hash of the library files in hex.
+     */
+    static String getFingerprint() {
+        File[] files = new File(LIBRARY_DIR).listFiles((dir, name) -> name.endsWith(".off"));
+        if (files == null || files.length == 0)
+            files = new File(PACK_FILE).isFile() ? new File[]{new File(PACK_FILE)} : new File[0];
+        Arrays.sort(files);
+        MessageDigest digest = Grid.newDigest();
+        byte[] buffer = new byte[1 << 16];
+        for (File file : files) {
+            digest.update((file.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = new FileInputStream(file)) {
+                for (int n; (n = in.read(buffer)) > 0; )
+                    digest.update(buffer, 0, n);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read building mesh", e);
+            }
+        }
+        return Grid.toHex(digest.digest());
+    }
+
+    /**
+     * Opens the library pack, unless there is no pack or an OFF file has changed since the pack was built.
+     * @return the pack, or null if the OFF files are to be read instead.
+     */
+    private static MeshPack openPack() {
+        File pack = new File(PACK_FILE);
+        if (!pack.isFile())
+            return null;
+        File[] sources = new File(LIBRARY_DIR).listFiles((dir, name) -> name.endsWith(".off"));
+        if (sources != null) {
+            for (File source : sources) {
+                if (source.lastModified() > pack.lastModified()) {
+                    Main.print("Library pack is older than " + source + ", reading OFF files instead.");
+                    return null;
+                }
+            }
+        }
+        try {
+            MeshPack opened = MeshPack.open(pack);
+            Main.print("Mapped library pack " + pack);
+            return opened;
+        } catch (IOException e) {
+            Main.print("Library pack could not be read, reading OFF files instead: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads a mesh from the library and bakes the unit scale and shape rotation into its vertices.
+     * @param fileName is the OFF file to read.
+     * @param shapeType determines the rotation required for normalization.
+     * @return the normalized mesh.
+     */
+    static Prototype load(String fileName, int shapeType) {
+        OffReader mesh = read(fileName);
+        return new Prototype(normalize(mesh.getVertices(), shapeType), mesh.getFaces());
+    }
+
+    private static OffReader read(String fileName) {
+        try {
+            return OffReader.parse(new File(fileName));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read building mesh", e);
+        }
+    }
+
+    /**
+     * Bakes the unit scale and shape rotation into the vertices of a library mesh.
+     * @param vertices are the packed vertex coordinates, changed in place.
+     * @param shapeType determines the rotation required for normalization.
+     * @return the vertices.
+     */
+    private static float[] normalize(float[] vertices, int shapeType) {
+        // Rotation is handled around the z axis, so that buildings are always rooted to the ground.
+        double angle = Math.toRadians(getNormalRotation(shapeType));
+        double cosT = Math.cos(angle) * UNIT_SCALE;
+        double sinT = Math.sin(angle) * UNIT_SCALE;
+        for (int c = 0; c < vertices.length; c += 3) {
+            double x = vertices[c];
+            double y = vertices[c + 1];
+            vertices[c] = (float) (x*cosT - y*sinT);
+            vertices[c + 1] = (float) (x*sinT + y*cosT);
+            vertices[c + 2] = (float) (vertices[c + 2] * UNIT_SCALE);
+        }
+        return vertices;
+    }
+
+    /**
+     * Gives the base rotation of each building such that all buildings have their doors facing the same direction
+     * (north).
+     * 3 sided buildings must be rotated 120 degrees.
+     * 5 sided buildings must be rotated 72 degrees twice (144 degrees).
+     * @param shapeType determines the angle of rotation required for normalization.
+     * @return the angle of rotation in degrees.
+     */
+    private static double getNormalRotation(int shapeType) {
+        switch (shapeType) {
+            case 0:
+            case 1:
+                return 90;
+            case 2:
+                return 234;
+            case 3:
+                return 210;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Reads and writes the library pack, a single binary file holding every normalized prototype of the mesh library.
+ * All values are little-endian:
+ *
+ * header:    int magic, int version, int entry count, int reserved
+ * directory: per entry int shapeType, int numStories, int vertex count, int triangle count,
+ *            long offset of the vertices, long offset of the faces,
+ *            float height, int footprint corner count, long offset of the footprint
+ * data:      per entry the packed float x, y, z of each vertex, then the packed int indices of each triangle, then the
+ *            packed float x, y of each footprint corner
+ *
+ * The directory alone describes every building, see PrototypeInfo, so it is read when the pack is opened and the
+ * geometry is only touched for the buildings that are placed.
+ *
+ * Run this class to compile meshes/library-clean into meshes/library.pack. An opened pack is mapped into memory once,
+ * and the prototype of an entry is a view of the mapping made when it is first requested, without copying.
+ */
+class MeshPack {
+    private static final int MAGIC = 0x4B504350; // "PCPK"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 48;
+    // The mapped file, read with absolute gets only
+    private final ByteBuffer buffer;
+    // Offset of the directory entry of each shape type and number of stories, or 0 if the pack does not hold it
+    private final int[][] entries;
+    // Description of each building held, or null
+    private final PrototypeInfo[][] infos;
+
+    private MeshPack(ByteBuffer buffer, int[][] entries, PrototypeInfo[][] infos) {
+        this.buffer = buffer;
+        this.entries = entries;
+        this.infos = infos;
+    }
+
+    /**
+     * Compiles every mesh found in the library into a pack.
+     * @param args optionally holds the path of the pack to write.
+     */
+    public static void main(String[] args) throws IOException {
+        File pack = new File(args.length > 0 ? args[0] : MeshLibrary.PACK_FILE);
+        ArrayList<int[]> keys = new ArrayList<>();
+        ArrayList<Prototype> entries = new ArrayList<>();
+        for (int shapeType = 0; shapeType < MeshLibrary.NUM_SHAPE_TYPES; shapeType++) {
+            for (int numStories = 0; numStories < MeshLibrary.NUM_STORIES; numStories++) {
+                String fileName = MeshLibrary.getFileName(shapeType, numStories);
+                if (!new File(fileName).isFile())
+                    continue;
+                Main.print("Packing " + fileName);
+                keys.add(new int[]{shapeType, numStories});
+                entries.add(MeshLibrary.load(fileName, shapeType));
+            }
+        }
+        write(pack, keys, entries);
+        Main.print("Wrote " + entries.size() + " prototypes to " + pack + " (" + pack.length() + " bytes)");
+    }
+
+    private static void write(File pack, ArrayList<int[]> keys, ArrayList<Prototype> entries) throws IOException {
+        try (BinaryWriter out = new BinaryWriter(new FileOutputStream(pack))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            out.writeInt(0);
+            long offset = HEADER_SIZE + (long) ENTRY_SIZE * entries.size();
+            for (int e = 0; e < entries.size(); e++) {
+                Prototype p = entries.get(e);
+                out.writeInt(keys.get(e)[0]);
+                out.writeInt(keys.get(e)[1]);
+                out.writeInt(p.getVertexCount());
+                out.writeInt(p.getFaceCount());
+                out.writeLong(offset);
+                offset += 12L * p.getVertexCount();
+                out.writeLong(offset);
+                offset += 12L * p.getFaceCount();
+                out.writeFloat(p.getInfo().getHeight());
+                out.writeInt(p.getInfo().getFootprint().length / 2);
+                out.writeLong(offset);
+                offset += 4L * p.getInfo().getFootprint().length;
+            }
+            for (Prototype p : entries) {
+                FloatBuffer vertices = p.getVertices();
+                for (int i = 0; i < vertices.limit(); i++)
+                    out.writeFloat(vertices.get(i));
+                IntBuffer faces = p.getFaces();
+                for (int i = 0; i < faces.limit(); i++)
+                    out.writeInt(faces.get(i));
+                for (float f : p.getInfo().getFootprint())
+                    out.writeFloat(f);
+            }
+        }
+    }
+
+    /**
+     * Maps a pack into memory and checks its directory.
+     * @param pack is the pack file.
+     * @return the opened pack.
+     * @throws IOException if the file cannot be mapped or is not a valid pack.
+     */
+    static MeshPack open(File pack) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(pack.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Pack is larger than 2GB");
+            // The mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a library pack");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported pack version " + buffer.getInt(4));
+        int count = buffer.getInt(8);
+        if (count < 0 || HEADER_SIZE + (long) ENTRY_SIZE * count > buffer.limit())
+            throw new IOException("Pack directory is truncated");
+        int[][] entries = new int[MeshLibrary.NUM_SHAPE_TYPES][MeshLibrary.NUM_STORIES];
+        PrototypeInfo[][] infos = new PrototypeInfo[MeshLibrary.NUM_SHAPE_TYPES][MeshLibrary.NUM_STORIES];
+        for (int e = 0; e < count; e++) {
+            int entry = HEADER_SIZE + ENTRY_SIZE * e;
+            int shapeType = buffer.getInt(entry);
+            int numStories = buffer.getInt(entry + 4);
+            if (shapeType < 0 || shapeType >= entries.length || numStories < 0 || numStories >= entries[shapeType].length)
+                throw new IOException("Pack entry " + e + " has an unknown shape (" + shapeType + ", " + numStories + ")");
+            int vertexCount = buffer.getInt(entry + 8);
+            int faceCount = buffer.getInt(entry + 12);
+            int corners = buffer.getInt(entry + 36);
+            checkBounds(buffer, buffer.getLong(entry + 16), 12L * vertexCount);
+            checkBounds(buffer, buffer.getLong(entry + 24), 12L * faceCount);
+            long footprintOffset = buffer.getLong(entry + 40);
+            checkBounds(buffer, footprintOffset, 8L * corners);
+            float[] footprint = new float[corners * 2];
+            for (int c = 0; c < footprint.length; c++)
+                footprint[c] = buffer.getFloat((int) footprintOffset + 4 * c);
+            entries[shapeType][numStories] = entry;
+            infos[shapeType][numStories] = new PrototypeInfo(vertexCount, faceCount, buffer.getFloat(entry + 32), footprint);
+        }
+        return new MeshPack(buffer, entries, infos);
+    }
+
+    /**
+     * @return the counts, height and footprint of the given building, or null if the pack does not hold it.
+     */
+    PrototypeInfo getInfo(int shapeType, int numStories) {
+        return this.infos[shapeType][numStories];
+    }
+
+    /**
+     * Makes a read-only prototype that views the given building in the mapping.
+     * @return the prototype, or null if the pack does not hold the building.
+     */
+    Prototype get(int shapeType, int numStories) {
+        int entry = this.entries[shapeType][numStories];
+        if (entry == 0)
+            return null;
+        FloatBuffer vertices = slice(this.buffer.getLong(entry + 16), 12L * this.buffer.getInt(entry + 8)).asFloatBuffer();
+        IntBuffer faces = slice(this.buffer.getLong(entry + 24), 12L * this.buffer.getInt(entry + 12)).asIntBuffer();
+        return new Prototype(vertices, faces, this.infos[shapeType][numStories]);
+    }
+
+    private static void checkBounds(ByteBuffer buffer, long offset, long length) throws IOException {
+        if (length < 0 || offset < 0 || offset + length > buffer.limit())
+            throw new IOException("Pack entry at " + offset + " is out of bounds");
+    }
+
+    private ByteBuffer slice(long offset, long length) {
+        ByteBuffer view = this.buffer.duplicate();
+        view.position((int) offset).limit((int) (offset + length));
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination that a triangle mesh is streamed into. The number of vertices and faces is given up front, then every
+ * vertex is written in index order followed by every face. Closing the sink finishes and closes the output.
+ */
+interface MeshSink extends Closeable {
+
+    /**
+     * Starts the mesh. Must be called once before any vertices or faces are written.
+     * @param vertexCount is the number of vertices that will be written.
+     * @param faceCount is the number of faces that will be written.
+     */
+    void begin(int vertexCount, int faceCount) throws IOException;
+
+    /**
+     * Writes the next vertex. Vertices are numbered from 0 in the order they are written. Formats that store floats
+     * round the coordinates, the others keep them as given.
+     */
+    void vertex(double x, double y, double z) throws IOException;
+
+    /**
+     * Writes the next triangle from the indices of its three vertices.
+     */
+    void face(int a, int b, int c) throws IOException;
+}
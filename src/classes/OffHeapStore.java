@@ -0,0 +1,185 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import gui.App;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A growable block of memory outside the Java heap. Storage starts as a direct buffer. Once the direct buffers of all
+ * live stores would go over App.offHeapBudget, or a direct allocation fails, the store spills to a memory-mapped
+ * temporary file instead. The memory and any temporary file are freed as soon as the store is closed.
+ */
+class OffHeapStore implements AutoCloseable {
+    private static final AtomicLong reserved = new AtomicLong();
+    private static final Method invokeCleaner;
+    private static final Object unsafe;
+    private ByteBuffer buffer;
+    private long reservation;
+    private File file;
+    private FileChannel channel;
+
+    static {
+        // Direct and mapped buffers are otherwise only freed when they are garbage collected
+        Method method = null;
+        Object instance = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            instance = field.get(null);
+            method = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Main.print("Off-heap buffers will be released by the garbage collector.");
+        }
+        invokeCleaner = method;
+        unsafe = instance;
+    }
+
+    /**
+     * @param capacity is the initial size of the store in bytes.
+     */
+    OffHeapStore(int capacity) {
+        this.buffer = allocate(capacity);
+    }
+
+    /**
+     * @return the storage of the store, in native byte order. Any previously returned buffer is invalid once the store
+     * grows.
+     */
+    ByteBuffer buffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Grows the store, keeping its contents, until it holds at least the given number of bytes.
+     * @param capacity is the required size in bytes.
+     */
+    void ensureCapacity(long capacity) {
+        if (capacity <= this.buffer.capacity())
+            return;
+        if (capacity > Integer.MAX_VALUE)
+            throw new IllegalStateException("Mesh exceeds the maximum buffer size of 2GB");
+        int size = (int) Math.min(Integer.MAX_VALUE, Math.max(capacity, 2L * this.buffer.capacity()));
+        ByteBuffer old = this.buffer;
+        if (this.file != null) {
+            // Mapping a larger region of the same file keeps the contents without copying
+            this.buffer = map(size);
+            release(old);
+            return;
+        }
+        ByteBuffer grown = allocate(size);
+        old.clear();
+        grown.put(old);
+        grown.clear();
+        release(old);
+        reserved.addAndGet(-old.capacity());
+        this.reservation -= old.capacity();
+        this.buffer = grown;
+    }
+
+    private ByteBuffer allocate(int size) {
+        if (this.file == null && reserved.addAndGet(size) <= App.offHeapBudget) {
+            try {
+                this.reservation += size;
+                return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            } catch (OutOfMemoryError e) {
+                this.reservation -= size;
+                reserved.addAndGet(-size);
+            }
+        } else if (this.file == null) {
+            reserved.addAndGet(-size);
+        }
+        return spill(size);
+    }
+
+    private ByteBuffer spill(int size) {
+        try {
+            this.file = File.createTempFile("city_mesh_", ".tmp");
+            this.channel = new RandomAccessFile(this.file, "rw").getChannel();
+            return map(size);
+        } catch (IOException e) {
+            closeFile();
+            throw new UncheckedIOException("Could not spill mesh to a temporary file", e);
+        } catch (RuntimeException e) {
+            closeFile();
+            throw e;
+        }
+    }
+
+    private ByteBuffer map(int size) {
+        try {
+            return this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.nativeOrder());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map " + this.file, e);
+        }
+    }
+
+    /**
+     * Frees the memory held by the store and deletes its temporary file, if any.
+     */
+    @Override
+    public void close() {
+        if (this.buffer == null)
+            return;
+        release(this.buffer);
+        this.buffer = null;
+        reserved.addAndGet(-this.reservation);
+        this.reservation = 0;
+        closeFile();
+    }
+
+    /**
+     * Closes and deletes the temporary file, if any. The file is deleted here rather than left to the end of the
+     * program, so that a long session does not collect files or their names until it exits.
+     */
+    private void closeFile() {
+        if (this.file == null)
+            return;
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.channel = null;
+        }
+        if (!this.file.delete() && this.file.exists())
+            Main.print("Could not delete the temporary file " + this.file);
+        this.file = null;
+    }
+
+    private static void release(ByteBuffer buffer) {
+        if (invokeCleaner == null || !buffer.isDirect())
+            return;
+        try {
+            invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Left for the garbage collector
+        }
+    }
+}
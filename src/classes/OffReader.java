@@ -0,0 +1,271 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A fast reader for meshes in the ASCII OFF format. The file is memory-mapped and numbers are parsed straight from its
+ * bytes into primitive arrays, without creating a String per token. Polygon faces are split into triangle fans and
+ * any colour values after the coordinates or indices of a line are skipped.
+ */
+class OffReader {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private final File file;
+    private final ByteBuffer in;
+    private int pos, line = 1;
+    private float[] vertices;
+    private int[] faces;
+    private int faceCount;
+
+    private OffReader(File file, ByteBuffer in) {
+        this.file = file;
+        this.in = in;
+    }
+
+    /**
+     * Reads a triangle mesh from an OFF file.
+     * @param file is the file to read.
+     * @return the mesh, with vertices and faces in file order.
+     * @throws IOException if the file cannot be read or is not a valid OFF file.
+     */
+    static Prototype read(File file) throws IOException {
+        OffReader reader = parse(file);
+        return new Prototype(reader.vertices, reader.getFaces());
+    }
+
+    /**
+     * Reads a triangle mesh in the OFF format from a buffer.
+     * @param file is the file the buffer came from, used in error messages.
+     * @param in holds the contents of the file from position 0 to its limit.
+     * @return the mesh, with vertices and faces in file order.
+     * @throws IOException if the contents are not a valid OFF file.
+     */
+    static Prototype read(File file, ByteBuffer in) throws IOException {
+        OffReader reader = new OffReader(file, in);
+        reader.parse();
+        return new Prototype(reader.vertices, reader.getFaces());
+    }
+
+    /**
+     * Reads a triangle mesh from an OFF file without making a Prototype of it, so that the caller can still change
+     * the vertices.
+     * @param file is the file to read.
+     * @return the reader holding the mesh, see getVertices() and getFaces().
+     * @throws IOException if the file cannot be read or is not a valid OFF file.
+     */
+    static OffReader parse(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is larger than 2GB");
+            OffReader reader = new OffReader(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            reader.parse();
+            return reader;
+        }
+    }
+
+    /**
+     * @return the packed x, y, z coordinates of each vertex read, in file order.
+     */
+    float[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return the packed vertex indices of each triangle read, in file order.
+     */
+    int[] getFaces() {
+        return faces.length == faceCount * 3 ? faces : Arrays.copyOf(faces, faceCount * 3);
+    }
+
+    /**
+     * @return the {vertex, polygon} counts given by the header.
+     */
+    private int[] parseHeader() throws IOException {
+        skipSpace();
+        // Accept the OFF keyword and its variants such as COFF, which only add colours
+        int start = pos;
+        while (pos < in.limit() && !isSpace(in.get(pos)))
+            pos++;
+        if (pos - start < 3 || in.get(pos - 3) != 'O' || in.get(pos - 2) != 'F' || in.get(pos - 1) != 'F')
+            throw error("missing OFF header");
+        int vertexCount = readInt();
+        int polygonCount = readInt();
+        readInt(); // The edge count is not used
+        // Every vertex needs at least 6 bytes of text, so larger counts cannot be valid
+        if (vertexCount < 0 || polygonCount < 0 || vertexCount > in.limit() / 6 || polygonCount > in.limit() / 6)
+            throw error("invalid counts " + vertexCount + " " + polygonCount);
+        skipLine();
+        return new int[]{vertexCount, polygonCount};
+    }
+
+    private void parse() throws IOException {
+        int[] counts = parseHeader();
+        int vertexCount = counts[0];
+        int polygonCount = counts[1];
+
+        vertices = new float[vertexCount * 3];
+        for (int v = 0; v < vertices.length; v += 3) {
+            vertices[v] = (float) readDouble();
+            vertices[v + 1] = (float) readDouble();
+            vertices[v + 2] = (float) readDouble();
+            skipLine();
+        }
+        faces = new int[polygonCount * 3];
+        for (int f = 0; f < polygonCount; f++) {
+            int degree = readInt();
+            if (degree < 3)
+                throw error("face " + f + " has " + degree + " vertices");
+            int first = readIndex(vertexCount);
+            int previous = readIndex(vertexCount);
+            for (int i = 2; i < degree; i++) {
+                int next = readIndex(vertexCount);
+                addFace(first, previous, next);
+                previous = next;
+            }
+            skipLine();
+        }
+    }
+
+    private void addFace(int a, int b, int c) {
+        if ((faceCount + 1) * 3 > faces.length)
+            faces = Arrays.copyOf(faces, Math.max(faces.length * 2, 3));
+        faces[faceCount * 3] = a;
+        faces[faceCount * 3 + 1] = b;
+        faces[faceCount * 3 + 2] = c;
+        faceCount++;
+    }
+
+    private int readIndex(int vertexCount) throws IOException {
+        int index = readInt();
+        if (index < 0 || index >= vertexCount)
+            throw error("vertex index " + index + " is out of range");
+        return index;
+    }
+
+    private int readInt() throws IOException {
+        skipSpace();
+        boolean negative = false;
+        if (pos < in.limit() && (in.get(pos) == '-' || in.get(pos) == '+'))
+            negative = in.get(pos++) == '-';
+        int start = pos;
+        long value = 0;
+        while (pos < in.limit() && isDigit(in.get(pos))) {
+            value = value * 10 + (in.get(pos++) - '0');
+            if (value > Integer.MAX_VALUE)
+                throw error("integer is too large");
+        }
+        if (pos == start)
+            throw error("expected an integer");
+        return (int) (negative ? -value : value);
+    }
+
+    private double readDouble() throws IOException {
+        skipSpace();
+        boolean negative = false;
+        if (pos < in.limit() && (in.get(pos) == '-' || in.get(pos) == '+'))
+            negative = in.get(pos++) == '-';
+        long mantissa = 0;
+        int exponent = 0, digits = 0;
+        boolean seenDigit = false;
+        byte b;
+        while (pos < in.limit() && isDigit(b = in.get(pos))) {
+            // Digits beyond what a long holds only change the magnitude
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0)
+                    digits++;
+            } else {
+                exponent++;
+            }
+            seenDigit = true;
+            pos++;
+        }
+        if (pos < in.limit() && in.get(pos) == '.') {
+            pos++;
+            while (pos < in.limit() && isDigit(b = in.get(pos))) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    exponent--;
+                    if (mantissa != 0)
+                        digits++;
+                }
+                seenDigit = true;
+                pos++;
+            }
+        }
+        if (!seenDigit)
+            throw error("expected a number");
+        if (pos < in.limit() && (in.get(pos) == 'e' || in.get(pos) == 'E')) {
+            pos++;
+            exponent += readInt();
+        }
+        double value = mantissa;
+        if (exponent > 0)
+            value *= exponent < POWERS_OF_TEN.length ? POWERS_OF_TEN[exponent] : Math.pow(10, exponent);
+        else if (exponent < 0)
+            value /= -exponent < POWERS_OF_TEN.length ? POWERS_OF_TEN[-exponent] : Math.pow(10, -exponent);
+        return negative ? -value : value;
+    }
+
+    /**
+     * Skips whitespace, line breaks and comments.
+     */
+    private void skipSpace() {
+        while (pos < in.limit()) {
+            byte b = in.get(pos);
+            if (b == '#') {
+                while (pos < in.limit() && in.get(pos) != '\n')
+                    pos++;
+            } else if (isSpace(b)) {
+                if (b == '\n')
+                    line++;
+                pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skips the rest of the current line, such as colour values.
+     */
+    private void skipLine() {
+        while (pos < in.limit() && in.get(pos) != '\n')
+            pos++;
+    }
+
+    private IOException error(String message) {
+        return new IOException(file + " line " + line + ": " + message);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
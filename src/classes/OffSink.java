@@ -0,0 +1,66 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a mesh in the ASCII OFF format with a fixed number of decimal places.
+ */
+class OffSink extends AbstractMeshSink {
+    private final FixedPointWriter out;
+
+    OffSink(OutputStream out, int precision) {
+        this.out = new FixedPointWriter(out, precision);
+    }
+
+    @Override
+    void writeHeader(int vertexCount, int faceCount) throws IOException {
+        out.writeAscii("OFF\n");
+        out.writeInt(vertexCount);
+        out.writeByte(' ');
+        out.writeInt(faceCount);
+        out.writeAscii(" 0\n");
+    }
+
+    @Override
+    void writeVertex(double x, double y, double z) throws IOException {
+        out.writeFixed(x);
+        out.writeByte(' ');
+        out.writeFixed(y);
+        out.writeByte(' ');
+        out.writeFixed(z);
+        out.writeByte('\n');
+    }
+
+    @Override
+    void writeFace(int a, int b, int c) throws IOException {
+        out.writeAscii("3 ");
+        out.writeInt(a);
+        out.writeByte(' ');
+        out.writeInt(b);
+        out.writeByte(' ');
+        out.writeInt(c);
+        out.writeByte('\n');
+    }
+
+    @Override
+    void finish() throws IOException {
+        out.close();
+    }
+}
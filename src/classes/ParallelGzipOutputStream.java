@@ -0,0 +1,165 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip stream that compresses on several threads at once, in the manner of pigz. The data is cut into blocks that
+ * are deflated in parallel, each primed with the end of the block before it so that little compression is lost. Every
+ * block but the last ends on a byte boundary with a sync flush, so the compressed blocks join into a single deflate
+ * stream that any gzip reader accepts. The checksum is computed as the data is written.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService pool = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread t = new Thread(r, "gzip");
+        t.setDaemon(true);
+        return t;
+    });
+    private final OutputStream out;
+    private final int level;
+    private final CRC32 crc = new CRC32();
+    // Compressed blocks in the order they must be written
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private byte[] previous;
+    private int count;
+    private long size;
+    private boolean closed;
+
+    /**
+     * @param out is the stream the compressed data is written to.
+     * @param level is the deflate compression level (0-9).
+     */
+    ParallelGzipOutputStream(OutputStream out, int level) throws IOException {
+        this.out = out;
+        this.level = level;
+        // Header: magic, deflate, no flags, no time, no extra flags, unknown OS
+        out.write(new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed)
+            throw new IOException("Stream closed");
+        this.crc.update(b, off, len);
+        this.size += len;
+        while (len > 0) {
+            int n = Math.min(len, this.block.length - this.count);
+            System.arraycopy(b, off, this.block, this.count, n);
+            this.count += n;
+            off += n;
+            len -= n;
+            if (this.count == this.block.length)
+                submit(false);
+        }
+    }
+
+    /**
+     * Hands the current block to the pool and starts a new one.
+     * @param last is true for the block that ends the stream.
+     */
+    private void submit(boolean last) throws IOException {
+        final byte[] input = this.block;
+        final int length = this.count;
+        final byte[] dictionary = this.previous;
+        this.pending.add(pool.submit(() -> deflate(input, length, dictionary, last)));
+        this.previous = input;
+        this.block = new byte[BLOCK_SIZE];
+        this.count = 0;
+        // Keep a bounded number of blocks in memory
+        while (this.pending.size() > THREADS * 2)
+            writeNext();
+    }
+
+    private byte[] deflate(byte[] input, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(this.level, true);
+        try {
+            if (dictionary != null)
+                deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            deflater.setInput(input, 0, length);
+            if (last)
+                deflater.finish();
+            ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (true) {
+                int n = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                result.write(buffer, 0, n);
+                if (last ? deflater.finished() : n < buffer.length)
+                    break;
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        try {
+            byte[] compressed = this.pending.remove().get();
+            this.out.write(compressed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+    }
+
+    /**
+     * Compresses the remaining data, writes the gzip trailer and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed)
+            return;
+        this.closed = true;
+        try {
+            submit(true);
+            while (!this.pending.isEmpty())
+                writeNext();
+            // Trailer: CRC-32 and uncompressed size modulo 2^32, little-endian
+            long crc = this.crc.getValue();
+            this.out.write(new byte[]{
+                    (byte) crc, (byte) (crc >> 8), (byte) (crc >> 16), (byte) (crc >> 24),
+                    (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)
+            });
+        } finally {
+            for (Future<byte[]> f : this.pending)
+                f.cancel(true);
+            this.out.close();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Measures the generator on synthetic maps across a matrix of map sizes and sector scales. For every size and scale
+ * the map is generated a number of times after a warm up run, and the fastest run is recorded with its throughput,
+ * the peak heap use and the size of the output. Results are written to a CSV file and compared against a stored
+ * baseline in the same format, and any combination slower than the baseline by more than the tolerance is flagged.
+ *
+ * Usage: PerfHarness [-sizes 32,64,96] [-scales 1,2,3] [-seed n] [-runs n] [-tolerance 0.15]
+ *                    [-results file] [-baseline file] [-update-baseline]
+ *
+ * The process exits with status 1 if any slowdown was flagged.
+ */
+public class PerfHarness {
+    static final String RESULTS_FILE = "perf/results.csv";
+    static final String BASELINE_FILE = "perf/baseline.csv";
+    private static final String OUT_DIR = "perf/out";
+    private static final String HEADER = "size,scale,seed,runs,millis,triangles,trianglesPerSecond,peakHeapMB,outputBytes";
+
+    private PerfHarness() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {32, 64, 96};
+        int[] scales = {1, 2, 3};
+        long seed = 1;
+        int runs = 3;
+        double tolerance = 0.15;
+        File results = new File(RESULTS_FILE);
+        File baseline = new File(BASELINE_FILE);
+        boolean updateBaseline = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-sizes":
+                    sizes = parseList(args[++i]);
+                    break;
+                case "-scales":
+                    scales = parseList(args[++i]);
+                    break;
+                case "-seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "-runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                case "-tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                case "-results":
+                    results = new File(args[++i]);
+                    break;
+                case "-baseline":
+                    baseline = new File(args[++i]);
+                    break;
+                case "-update-baseline":
+                    updateBaseline = true;
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        File out = new File(OUT_DIR);
+        if (!out.isDirectory() && !out.mkdirs())
+            throw new IOException("Could not create " + out);
+        App.verbose = false;
+        App.hasAlpha = true;
+        // Waiting for the disk to sync every chunk would only add noise to the timings
+        App.journalRun = false;
+
+        ArrayList<String> rows = new ArrayList<>();
+        for (int size : sizes) {
+            BufferedImage map = new SyntheticMap(seed).generate(size, size);
+            for (int scale : scales) {
+                App.scale = scale;
+                // The first run warms up the library and the JIT and is not recorded
+                Main.generate(map, out);
+                long best = Long.MAX_VALUE;
+                long peakHeap = 0;
+                ChunkManifest manifest = null;
+                for (int r = 0; r < runs; r++) {
+                    System.gc();
+                    resetPeakHeap();
+                    long start = System.nanoTime();
+                    manifest = Main.generate(map, out);
+                    best = Math.min(best, System.nanoTime() - start);
+                    peakHeap = Math.max(peakHeap, getPeakHeap());
+                }
+                long faces = manifest != null ? manifest.getFaceCount() : 0;
+                long bytes = manifest != null ? manifest.getBytes() : 0;
+                String row = String.format(Locale.ROOT, "%d,%d,%d,%d,%.1f,%d,%.0f,%.1f,%d", size, scale, seed, runs,
+                        best / 1e6, faces, faces / (best / 1e9), peakHeap / (1024.0 * 1024.0), bytes);
+                Main.print(HEADER + "\n" + row);
+                rows.add(row);
+            }
+        }
+
+        File parent = results.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create " + parent);
+        try (PrintWriter writer = new PrintWriter(new FileWriter(results))) {
+            writer.println(HEADER);
+            for (String row : rows)
+                writer.println(row);
+        }
+        Main.print("Wrote " + results);
+
+        int slowdowns = 0;
+        if (baseline.isFile())
+            slowdowns = compare(rows, readBaseline(baseline), tolerance);
+        else
+            Main.print("No baseline at " + baseline + ", nothing to compare against");
+        if (updateBaseline) {
+            Files.copy(results.toPath(), baseline.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Main.print("Updated " + baseline);
+        }
+        if (slowdowns > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Flags the results whose run time is longer than the baseline's by more than the tolerance.
+     * @return the number of slowdowns.
+     */
+    private static int compare(ArrayList<String> rows, HashMap<String, String[]> baseline, double tolerance) {
+        int slowdowns = 0;
+        for (String row : rows) {
+            String[] values = row.split(",");
+            String[] base = baseline.get(key(values));
+            if (base == null)
+                continue;
+            double millis = Double.parseDouble(values[4]);
+            double baseMillis = Double.parseDouble(base[4]);
+            double change = millis / baseMillis - 1;
+            String result = String.format(Locale.ROOT, "size %s scale %s: %.1f ms against %.1f ms (%+.1f%%)",
+                    values[0], values[1], millis, baseMillis, change * 100);
+            if (change > tolerance) {
+                Main.print("SLOWDOWN " + result);
+                slowdowns++;
+            } else {
+                Main.print("ok " + result);
+            }
+        }
+        return slowdowns;
+    }
+
+    private static HashMap<String, String[]> readBaseline(File file) throws IOException {
+        HashMap<String, String[]> rows = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split(",");
+                if (values.length >= 5)
+                    rows.put(key(values), values);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return the size, scale and seed identifying a row.
+     */
+    private static String key(String[] values) {
+        return values[0] + "," + values[1] + "," + values[2];
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+    }
+
+    /**
+     * @return the sum of the peak use of each heap pool since the last reset, in bytes.
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    private static int[] parseList(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a mesh in the binary little-endian PLY format with float vertices and int indices.
+ */
+class PlySink extends AbstractMeshSink {
+    private final BinaryWriter out;
+
+    PlySink(OutputStream out) {
+        this.out = new BinaryWriter(out);
+    }
+
+    @Override
+    void writeHeader(int vertexCount, int faceCount) throws IOException {
+        out.writeAscii("ply\n" +
+                "format binary_little_endian 1.0\n" +
+                "comment Procedural City Generator\n" +
+                "element vertex " + vertexCount + "\n" +
+                "property float x\n" +
+                "property float y\n" +
+                "property float z\n" +
+                "element face " + faceCount + "\n" +
+                "property list uchar int vertex_indices\n" +
+                "end_header\n");
+    }
+
+    @Override
+    void writeVertex(double x, double y, double z) throws IOException {
+        out.writeFloat((float) x);
+        out.writeFloat((float) y);
+        out.writeFloat((float) z);
+    }
+
+    @Override
+    void writeFace(int a, int b, int c) throws IOException {
+        out.writeByte(3);
+        out.writeInt(a);
+        out.writeInt(b);
+        out.writeInt(c);
+    }
+
+    @Override
+    void finish() throws IOException {
+        out.close();
+    }
+}
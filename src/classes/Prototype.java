@@ -0,0 +1,117 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * An immutable building mesh from the library, already scaled to unit size and rotated so that its door faces north.
+ * Instances of a building only need their own placement transform applied to these vertices. The data is either held
+ * in arrays or is a read-only view into the memory-mapped library pack. Everything derived from the mesh is found once
+ * when the prototype is made, so a prototype can be shared between threads without locking.
+ */
+class Prototype {
+    // Packed x, y, z coordinates of each vertex
+    private final FloatBuffer vertices;
+    // Packed vertex indices of each triangle
+    private final IntBuffer faces;
+    // Faces without the floor of the building, and the z of the floor
+    private final IntBuffer facesAboveBase;
+    private final float baseZ;
+    // Counts, height and footprint of the building
+    private final PrototypeInfo info;
+    // Vertex cache misses drawing all the faces, and the faces above the base
+    private final int cacheMisses, cacheMissesAboveBase;
+
+    Prototype(float[] vertices, int[] faces) {
+        this(FloatBuffer.wrap(vertices), IntBuffer.wrap(faces));
+    }
+
+    Prototype(FloatBuffer vertices, IntBuffer faces) {
+        this(vertices, faces, PrototypeInfo.measure(vertices, faces.limit() / 3));
+    }
+
+    /**
+     * @param info is the measure of the mesh, when it is already known.
+     */
+    Prototype(FloatBuffer vertices, IntBuffer faces, PrototypeInfo info) {
+        this.vertices = vertices;
+        this.faces = faces;
+        this.info = info;
+        this.baseZ = FaceCuller.findBaseZ(vertices);
+        this.facesAboveBase = IntBuffer.wrap(FaceCuller.removeBase(vertices, faces, this.baseZ));
+        int n = getVertexCount();
+        this.cacheMisses = VertexCacheOptimizer.countCacheMisses(faces, n, VertexCacheOptimizer.CACHE_SIZE);
+        this.cacheMissesAboveBase = VertexCacheOptimizer.countCacheMisses(this.facesAboveBase, n,
+                VertexCacheOptimizer.CACHE_SIZE);
+    }
+
+    int getVertexCount() {
+        return this.vertices.limit() / 3;
+    }
+
+    int getFaceCount() {
+        return this.faces.limit() / 3;
+    }
+
+    /**
+     * @return the counts, height and footprint of the building.
+     */
+    PrototypeInfo getInfo() {
+        return this.info;
+    }
+
+    /**
+     * @return the packed vertex coordinates. Read them with absolute gets, the buffer is shared between threads.
+     */
+    FloatBuffer getVertices() {
+        return this.vertices;
+    }
+
+    /**
+     * @return the packed face indices. Read them with absolute gets, the buffer is shared between threads.
+     */
+    IntBuffer getFaces() {
+        return this.faces;
+    }
+
+    /**
+     * @return the packed face indices without the downward facing faces that lie flat on the bottom of the building,
+     * as these are hidden by the ground when the building is placed on it, see getBaseZ(). Read them with absolute
+     * gets.
+     */
+    IntBuffer getFacesAboveBase() {
+        return this.facesAboveBase;
+    }
+
+    /**
+     * @return the lowest z of the building, where its floor lies.
+     */
+    float getBaseZ() {
+        return this.baseZ;
+    }
+
+    /**
+     * @param aboveBase is true to count the faces above the base only, see getFacesAboveBase().
+     * @return the number of vertex cache misses drawing the faces in order.
+     */
+    int getCacheMisses(boolean aboveBase) {
+        return aboveBase ? this.cacheMissesAboveBase : this.cacheMisses;
+    }
+}
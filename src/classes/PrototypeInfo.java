@@ -0,0 +1,125 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * The size and shape of a building from the library, known without keeping its geometry. Estimates, previews and
+ * collision checks only need these, so they read them from the library pack or from a single pass over the OFF file
+ * rather than loading the prototype.
+ */
+final class PrototypeInfo {
+    private final int vertexCount;
+    private final int faceCount;
+    // Packed x, y corners of the outline of the building seen from above, and its height
+    private final float[] footprint;
+    private final float height;
+
+    /**
+     * @param vertexCount is the number of vertices of the building.
+     * @param faceCount is the number of triangles of the building, after polygons are split into triangles.
+     * @param height is the height of the top of the building above its origin.
+     * @param footprint holds the packed x, y corners of the convex outline of the building seen from above.
+     */
+    PrototypeInfo(int vertexCount, int faceCount, float height, float[] footprint) {
+        this.vertexCount = vertexCount;
+        this.faceCount = faceCount;
+        this.height = height;
+        this.footprint = footprint;
+    }
+
+    /**
+     * Measures a normalized building mesh.
+     * @param vertices are the packed vertex coordinates of the mesh.
+     * @param faceCount is the number of triangles of the mesh.
+     * @return the size and shape of the mesh.
+     */
+    static PrototypeInfo measure(FloatBuffer vertices, int faceCount) {
+        float top = vertices.limit() > 0 ? -Float.MAX_VALUE : 0;
+        for (int c = 2; c < vertices.limit(); c += 3)
+            top = Math.max(top, vertices.get(c));
+        return new PrototypeInfo(vertices.limit() / 3, faceCount, top, findFootprint(vertices));
+    }
+
+    int getVertexCount() {
+        return this.vertexCount;
+    }
+
+    int getFaceCount() {
+        return this.faceCount;
+    }
+
+    /**
+     * @return the height of the top of the building above its origin.
+     */
+    float getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @return the packed x, y corners of the convex outline of the building seen from above, in counter-clockwise
+     * order. The array must not be modified.
+     */
+    float[] getFootprint() {
+        return this.footprint;
+    }
+
+    /**
+     * Finds the convex hull of the vertices projected onto the ground, with the monotone chain algorithm.
+     * @param vertices are the packed vertex coordinates.
+     * @return the packed x, y corners of the hull in counter-clockwise order.
+     */
+    private static float[] findFootprint(FloatBuffer vertices) {
+        int n = vertices.limit() / 3;
+        Integer[] order = new Integer[n];
+        for (int v = 0; v < n; v++)
+            order[v] = v;
+        Arrays.sort(order, (a, b) -> {
+            int c = Float.compare(vertices.get(a * 3), vertices.get(b * 3));
+            return c != 0 ? c : Float.compare(vertices.get(a * 3 + 1), vertices.get(b * 3 + 1));
+        });
+        int[] hull = new int[2 * n];
+        int size = 0;
+        // Lower hull from left to right, then upper hull from right to left
+        for (int pass = 0; pass < 2; pass++) {
+            int start = size;
+            for (int o = 0; o < n; o++) {
+                int v = order[pass == 0 ? o : n - 1 - o];
+                while (size >= start + 2 && cross(vertices, hull[size - 2], hull[size - 1], v) <= 0)
+                    size--;
+                hull[size++] = v;
+            }
+            // The last corner of each chain is the first corner of the other
+            size--;
+        }
+        float[] corners = new float[Math.max(size, 0) * 2];
+        for (int c = 0; c < size; c++) {
+            corners[c * 2] = vertices.get(hull[c] * 3);
+            corners[c * 2 + 1] = vertices.get(hull[c] * 3 + 1);
+        }
+        return corners;
+    }
+
+    private static double cross(FloatBuffer vertices, int o, int a, int b) {
+        double ox = vertices.get(o * 3), oy = vertices.get(o * 3 + 1);
+        return (vertices.get(a * 3) - ox) * (vertices.get(b * 3 + 1) - oy)
+                - (vertices.get(a * 3 + 1) - oy) * (vertices.get(b * 3) - ox);
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static classes.Grid.SECTION_SIZE;
+
+/**
+ * The roads of a chunk as a single mesh. The road pixels are covered with as few rectangular strips as possible:
+ * each strip starts at the first uncovered road pixel, runs along its row as far as the road goes and then grows down
+ * the following rows for as long as the whole run is road.
+ *
+ * The road surface sits ROAD_LIFT above the ground so that the streets stand out from it. The ground leaves out its
+ * tiles under road pixels, so the two never overlap. Every corner of a neighbouring strip that lies along the edge of
+ * a strip is also a vertex of the strip, so that strips meet without T-junctions. Strips are triangulated by clipping
+ * ears from their outline and every triangle faces up, counter-clockwise seen from above.
+ */
+class RoadNetwork {
+    // Height of the road surface above the ground
+    static final double ROAD_LIFT = 0.05;
+    // Road pixels of the chunk, and how many there are
+    private final boolean[][] road;
+    private int roadPixels;
+    // Index of the vertex at each pixel corner, and the corners in vertex order
+    private final HashMap<Long, Integer> cornerIndices = new HashMap<>();
+    private final ArrayList<int[]> corners = new ArrayList<>();
+    // Packed vertex indices of each triangle
+    private int[] faces = new int[64];
+    private int faceCount;
+
+    /**
+     * Finds the road strips of a chunk and triangulates them.
+     * @param blocks are the Blocks of the chunk. Each road Block makes its whole sector road.
+     * @param width is the width of the chunk in pixels.
+     * @param height is the height of the chunk in pixels.
+     */
+    RoadNetwork(Block[][] blocks, int width, int height) {
+        this.road = new boolean[width][height];
+        for (Block[] column : blocks) {
+            for (Block block : column) {
+                if (!block.isRoad())
+                    continue;
+                for (int i = block.getX(); i < Math.min(block.getX() + App.scale, width); i++) {
+                    for (int k = block.getY(); k < Math.min(block.getY() + App.scale, height); k++) {
+                        this.road[i][k] = true;
+                        this.roadPixels++;
+                    }
+                }
+            }
+        }
+
+        // Greedily merge runs of road into strips, clearing the pixels each strip covers
+        boolean[][] uncovered = new boolean[width][];
+        for (int i = 0; i < width; i++)
+            uncovered[i] = this.road[i].clone();
+        ArrayList<int[]> strips = new ArrayList<>();
+        for (int k = 0; k < height; k++) {
+            for (int i = 0; i < width; i++) {
+                if (!uncovered[i][k])
+                    continue;
+                int w = 1;
+                while (i + w < width && uncovered[i + w][k])
+                    w++;
+                int h = 1;
+                while (k + h < height && isRun(uncovered, i, k + h, w))
+                    h++;
+                for (int x = i; x < i + w; x++)
+                    for (int y = k; y < k + h; y++)
+                        uncovered[x][y] = false;
+                strips.add(new int[]{i, k, w, h});
+                corner(i, k);
+                corner(i + w, k);
+                corner(i + w, k + h);
+                corner(i, k + h);
+            }
+        }
+        for (int[] strip : strips)
+            triangulate(strip);
+    }
+
+    private static boolean isRun(boolean[][] road, int i, int k, int w) {
+        for (int x = i; x < i + w; x++)
+            if (!road[x][k])
+                return false;
+        return true;
+    }
+
+    /**
+     * @return true if the pixel (i, k) of the chunk is covered by road.
+     */
+    boolean isRoad(int i, int k) {
+        return this.road[i][k];
+    }
+
+    /**
+     * @return the number of road pixels in the chunk.
+     */
+    int getRoadPixelCount() {
+        return this.roadPixels;
+    }
+
+    /**
+     * Triangulates a strip. Its outline runs counter-clockwise seen from above through its four corners and every
+     * corner of a neighbouring strip along its edges.
+     * @param strip is the {x, y, width, height} of the strip in pixels.
+     */
+    private void triangulate(int[] strip) {
+        int i0 = strip[0], k0 = strip[1], i1 = strip[0] + strip[2], k1 = strip[1] + strip[3];
+        int[] outline = new int[2 * (strip[2] + strip[3])];
+        int n = 0;
+        // Down the left edge, along the bottom, up the right edge and back along the top, starting each at a corner
+        for (int k = k0; k < k1; k++)
+            if (k == k0 || isShared(i0, k))
+                outline[n++] = corner(i0, k);
+        for (int i = i0; i < i1; i++)
+            if (i == i0 || isShared(i, k1))
+                outline[n++] = corner(i, k1);
+        for (int k = k1; k > k0; k--)
+            if (k == k1 || isShared(i1, k))
+                outline[n++] = corner(i1, k);
+        for (int i = i1; i > i0; i--)
+            if (i == i1 || isShared(i, k0))
+                outline[n++] = corner(i, k0);
+
+        // Clip the best shaped ear that leaves the rest of the outline with some area, until one triangle is left
+        long area = 0;
+        for (int v = 0; v < n; v++)
+            area += cross(outline[v], outline[(v + 1) % n]);
+        while (n > 3) {
+            int best = -1;
+            double bestQuality = 0;
+            long bestArea = 0;
+            for (int v = 0; v < n; v++) {
+                int a = outline[(v + n - 1) % n], b = outline[v], c = outline[(v + 1) % n];
+                long ear = cross(a, b) + cross(b, c) + cross(c, a);
+                if (ear <= 0 || ear >= area)
+                    continue;
+                double quality = (double) ear / Math.max(length(a, b), Math.max(length(b, c), length(c, a)));
+                if (quality > bestQuality) {
+                    best = v;
+                    bestQuality = quality;
+                    bestArea = ear;
+                }
+            }
+            addFace(outline[(best + n - 1) % n], outline[best], outline[(best + 1) % n]);
+            System.arraycopy(outline, best + 1, outline, best, n - best - 1);
+            n--;
+            area -= bestArea;
+        }
+        addFace(outline[0], outline[1], outline[2]);
+    }
+
+    /**
+     * Tests whether a pixel corner along the edge of a strip is also the corner of another strip.
+     */
+    private boolean isShared(int i, int k) {
+        return this.cornerIndices.containsKey(key(i, k));
+    }
+
+    /**
+     * @return the z component of the cross product of two pixel corners as points on the ground, where the y axis
+     * points up the image.
+     */
+    private long cross(int a, int b) {
+        int[] p = this.corners.get(a), q = this.corners.get(b);
+        return (long) p[0] * -q[1] - (long) -p[1] * q[0];
+    }
+
+    private long length(int a, int b) {
+        int[] p = this.corners.get(a), q = this.corners.get(b);
+        long dx = q[0] - p[0], dy = q[1] - p[1];
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * @return the index of the vertex at a pixel corner, adding the corner if it is new.
+     */
+    private int corner(int i, int k) {
+        Integer index = this.cornerIndices.get(key(i, k));
+        if (index != null)
+            return index;
+        this.cornerIndices.put(key(i, k), this.corners.size());
+        this.corners.add(new int[]{i, k});
+        return this.corners.size() - 1;
+    }
+
+    private static long key(int i, int k) {
+        return ((long) i << 32) | (k & 0xFFFFFFFFL);
+    }
+
+    private void addFace(int a, int b, int c) {
+        if ((this.faceCount + 1) * 3 > this.faces.length)
+            this.faces = Arrays.copyOf(this.faces, this.faces.length * 2);
+        this.faces[this.faceCount * 3] = a;
+        this.faces[this.faceCount * 3 + 1] = b;
+        this.faces[this.faceCount * 3 + 2] = c;
+        this.faceCount++;
+    }
+
+    int getVertexCount() {
+        return this.corners.size();
+    }
+
+    int getFaceCount() {
+        return this.faceCount;
+    }
+
+    /**
+     * Adds the road mesh to an empty mesh buffer, laid out in the same space as the ground tiles and ROAD_LIFT above
+     * them.
+     * @param m is the buffer to write to.
+     */
+    void write(MeshBuffer m) {
+        for (int[] c : this.corners)
+            m.addVertex(c[0]*SECTION_SIZE - (SECTION_SIZE/2), -c[1]*SECTION_SIZE + (SECTION_SIZE/2),
+                    Grid.GROUND_Z + ROAD_LIFT);
+        for (int f = 0; f < this.faceCount * 3; f += 3)
+            m.addFace(this.faces[f], this.faces[f + 1], this.faces[f + 2]);
+    }
+}
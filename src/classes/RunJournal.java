@@ -0,0 +1,238 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+
+/**
+ * Records the progress of a generation run so that a run that dies partway can be resumed. The journal starts with the
+ * parameters of the run, a hash of the input pixels and every option that changes the output, and gets a line for
+ * each chunk once its file is complete, giving the chunk's area of the image, counts, bounds, size and SHA-256 hash.
+ *
+ * Chunk files are written under a temporary name, synced to disk and renamed into place, and only then recorded in
+ * the journal, which is synced after every line. A chunk in the journal is therefore complete on disk, and a file
+ * that is not in the journal is never mistaken for a complete one.
+ *
+ * When resuming, a journal for the same parameters is read back and each recorded chunk whose file still has the
+ * recorded size and hash is kept. Every other chunk is generated again.
+ */
+class RunJournal implements Closeable {
+    static final String JOURNAL_FILE = "city_journal.txt";
+    // Suffix of files being written, renamed away once complete
+    static final String PART_SUFFIX = ".part";
+    private static final String HEADER = "# Procedural City Generator run journal";
+    private final FileChannel channel;
+    // Chunks recorded by the run being resumed, by number
+    private final HashMap<Integer, ChunkInfo> recorded = new HashMap<>();
+    private final File dir;
+    // Set once writing to the journal fails, after which nothing more is recorded
+    private boolean failed;
+
+    /**
+     * Opens the journal of a run, starting a new one unless App.resume is set and the journal in the directory is for
+     * the same parameters.
+     * @param dir is the directory the chunks are written to, or null for the working directory.
+     * @param image is the input image.
+     * @param storyCap is the highest number of stories (0-9) buildings are allowed.
+     */
+    RunJournal(File dir, BufferedImage image, int storyCap) throws IOException {
+        this.dir = dir;
+        File file = new File(dir, JOURNAL_FILE);
+        String parameters = getParameters(image, storyCap);
+        boolean resume = false;
+        if (App.resume && file.isFile()) {
+            resume = read(file, parameters);
+            if (resume)
+                Main.print("Resuming from " + file + " with " + this.recorded.size() + " chunks recorded");
+            else
+                Main.print("The journal in " + file + " is for a different run, starting over");
+        }
+        if (resume) {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.channel.position(this.channel.size());
+            // Start a new line after a line cut short
+            ByteBuffer last = ByteBuffer.allocate(1);
+            if (this.channel.read(last, this.channel.size() - 1) == 1 && last.get(0) != '\n')
+                append("\n");
+        } else {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                append(HEADER + "\nrun " + parameters + "\n");
+            } catch (IOException e) {
+                this.channel.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads the chunks recorded in a journal.
+     * @return true if the journal is for a run with the given parameters.
+     */
+    private boolean read(File file, String parameters) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            if (!HEADER.equals(reader.readLine()) || !("run " + parameters).equals(reader.readLine()))
+                return false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split(" ");
+                // A line cut short by the end of the previous run is missing its last value
+                if (values.length != 18 || !values[0].equals("chunk") || !values[17].equals("end"))
+                    continue;
+                try {
+                    double[] bounds = new double[6];
+                    for (int i = 0; i < 6; i++)
+                        bounds[i] = Double.parseDouble(values[11 + i]);
+                    ChunkInfo info = new ChunkInfo(Integer.parseInt(values[1]), values[6], Integer.parseInt(values[7]),
+                            Integer.parseInt(values[8]), bounds, Long.parseLong(values[9]), values[10]);
+                    info.setOrigin(Integer.parseInt(values[2]), Integer.parseInt(values[3]),
+                            Integer.parseInt(values[4]), Integer.parseInt(values[5]));
+                    this.recorded.put(info.getIndex(), info);
+                } catch (NumberFormatException e) {
+                    // Not written by this version
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds a chunk completed by the run being resumed. The chunk's file must still have the recorded size and hash.
+     * @param num is the number of the chunk.
+     * @param bounds is the {x, y, width, height} of the chunk in the image.
+     * @return the description of the chunk's file, or null if the chunk must be generated.
+     */
+    ChunkInfo getCompleted(int num, int[] bounds) {
+        ChunkInfo info = this.recorded.get(num);
+        if (info == null)
+            return null;
+        if (info.getOriginX() != bounds[0] || info.getOriginY() != bounds[1] || info.getWidth() != bounds[2]
+                || info.getHeight() != bounds[3])
+            return null;
+        File file = new File(this.dir, info.getFileName());
+        if (!file.isFile() || file.length() != info.getBytes())
+            return null;
+        MessageDigest digest = Grid.newDigest();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(file)) {
+            for (int n; (n = in.read(buffer)) > 0; )
+                digest.update(buffer, 0, n);
+        } catch (IOException e) {
+            return null;
+        }
+        return Grid.toHex(digest.digest()).equals(info.getHash()) ? info : null;
+    }
+
+    /**
+     * Records a chunk whose file has been renamed into place. If the journal cannot be written the run carries on
+     * without it, and the chunks from then on are generated again when resuming.
+     * @param info describes the chunk's file.
+     */
+    synchronized void complete(ChunkInfo info) {
+        if (this.failed)
+            return;
+        double[] b = info.getBounds();
+        try {
+            append("chunk " + info.getIndex() + " " + info.getOriginX() + " " + info.getOriginY() + " "
+                    + info.getWidth() + " " + info.getHeight() + " " + info.getFileName() + " " + info.getVertexCount()
+                    + " " + info.getFaceCount() + " " + info.getBytes() + " " + info.getHash() + " " + b[0] + " " + b[1]
+                    + " " + b[2] + " " + b[3] + " " + b[4] + " " + b[5] + " end\n");
+        } catch (IOException e) {
+            Main.print("Could not write the run journal, continuing without it: " + e);
+            this.failed = true;
+        }
+    }
+
+    private void append(String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining())
+            this.channel.write(buffer);
+        this.channel.force(false);
+    }
+
+    /**
+     * @return the options and input that determine the output of a run.
+     */
+    private static String getParameters(BufferedImage image, int storyCap) {
+        int width = image.getWidth(), height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        ByteBuffer bytes = ByteBuffer.allocate(pixels.length * Integer.BYTES);
+        bytes.asIntBuffer().put(pixels);
+        MessageDigest digest = Grid.newDigest();
+        digest.update(bytes);
+        return "image=" + Grid.toHex(digest.digest()) + " size=" + width + "x" + height + " stories=" + storyCap
+                + " " + Main.getOutputOptions();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Replaces a file with a complete temporary file. When App.journalRun is set, the temporary file is synced to disk
+     * before the rename and the directory after it, so the file survives the machine going down.
+     * @param part is the complete temporary file.
+     * @param file is the file to replace.
+     */
+    static void commit(File part, File file) throws IOException {
+        if (App.journalRun) {
+            try (FileOutputStream out = new FileOutputStream(part, true)) {
+                out.getFD().sync();
+            }
+        }
+        try {
+            Files.move(part.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (App.journalRun) {
+            // Directories cannot be opened for syncing on every platform, the rename is then left to the system
+            try (FileChannel directory = FileChannel.open(file.getAbsoluteFile().getParentFile().toPath(),
+                    StandardOpenOption.READ)) {
+                directory.force(true);
+            } catch (IOException e) {
+                // Not supported here
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package classes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a mesh in the binary STL format. STL stores the corners of every triangle rather than shared vertices, so the
+ * vertices are kept until the faces that use them are written.
+ */
+class StlSink extends AbstractMeshSink {
+    private static final int HEADER_SIZE = 80;
+    private final BinaryWriter out;
+    private float[] vertices;
+    private int count;
+
+    StlSink(OutputStream out) {
+        this.out = new BinaryWriter(out);
+    }
+
+    @Override
+    void writeHeader(int vertexCount, int faceCount) throws IOException {
+        String header = "Procedural City Generator";
+        out.writeAscii(header);
+        for (int i = header.length(); i < HEADER_SIZE; i++)
+            out.writeByte(' ');
+        out.writeInt(faceCount);
+        this.vertices = new float[vertexCount * 3];
+    }
+
+    @Override
+    void writeVertex(double x, double y, double z) {
+        // STL stores floats, so the vertices are kept as floats
+        vertices[count++] = (float) x;
+        vertices[count++] = (float) y;
+        vertices[count++] = (float) z;
+    }
+
+    @Override
+    void writeFace(int a, int b, int c) throws IOException {
+        a *= 3;
+        b *= 3;
+        c *= 3;
+        // Facet normal from the cross product of two edges
+        float ux = vertices[b] - vertices[a], uy = vertices[b + 1] - vertices[a + 1], uz = vertices[b + 2] - vertices[a + 2];
+        float vx = vertices[c] - vertices[a], vy = vertices[c + 1] - vertices[a + 1], vz = vertices[c + 2] - vertices[a + 2];
+        float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length > 0) {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+        }
+        out.writeFloat(nx);
+        out.writeFloat(ny);
+        out.writeFloat(nz);
+        writeCorner(a);
+        writeCorner(b);
+        writeCorner(c);
+        out.writeShort(0);
+    }
+
+    private void writeCorner(int v) throws IOException {
+        out.writeFloat(vertices[v]);
+        out.writeFloat(vertices[v + 1]);
+        out.writeFloat(vertices[v + 2]);
+    }
+
+    @Override
+    void finish() throws IOException {
+        this.vertices = null;
+        out.close();
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static gui.App.GRAYSCALE_LEEWAY;
+
+/**
+ * Generates input maps of any size from a seed, for measuring the generator on inputs larger than the UI allows. The
+ * mix of the map is controlled by:
+ *
+ * blockTypeWeights: how often each block type is picked (red channel)
+ * maxElevation:     the highest green value used for elevation
+ * minStories and maxStories: the range of stories picked (blue channel)
+ * roadDensity:      the chance of each row and column of pixels being a road (grayscale)
+ * holeDensity:      the chance of each pixel being fully transparent, as left by the UI for disabled sectors
+ *
+ * The same seed and settings always produce the same map.
+ */
+public class SyntheticMap {
+    private static final int NUM_BLOCK_TYPES = BlockTemplate.NUM_BLOCK_TYPES;
+    private static final int NUM_STORIES = MeshLibrary.NUM_STORIES;
+    private final long seed;
+    private double[] blockTypeWeights = {1, 1, 1, 1, 1, 1};
+    private int maxElevation = 50;
+    private int minStories = 0;
+    private int maxStories = NUM_STORIES - 1;
+    private double roadDensity = 0.1;
+    private double holeDensity = 0;
+
+    /**
+     * @param seed determines the contents of the map.
+     */
+    public SyntheticMap(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param weights is the relative frequency of each of the 6 block types.
+     */
+    public SyntheticMap setBlockTypeWeights(double... weights) {
+        if (weights.length != NUM_BLOCK_TYPES)
+            throw new IllegalArgumentException("Expected " + NUM_BLOCK_TYPES + " block type weights: " + weights.length);
+        this.blockTypeWeights = weights.clone();
+        return this;
+    }
+
+    /**
+     * @param maxElevation is the highest green value used (0-255).
+     */
+    public SyntheticMap setMaxElevation(int maxElevation) {
+        this.maxElevation = Math.max(0, Math.min(255, maxElevation));
+        return this;
+    }
+
+    /**
+     * @param minStories is the fewest stories picked (0-9).
+     * @param maxStories is the most stories picked (0-9).
+     */
+    public SyntheticMap setStories(int minStories, int maxStories) {
+        if (minStories < 0 || maxStories >= NUM_STORIES || minStories > maxStories)
+            throw new IllegalArgumentException("Invalid story range: " + minStories + "-" + maxStories);
+        this.minStories = minStories;
+        this.maxStories = maxStories;
+        return this;
+    }
+
+    /**
+     * @param roadDensity is the chance of each row and column being a road (0-1).
+     */
+    public SyntheticMap setRoadDensity(double roadDensity) {
+        this.roadDensity = roadDensity;
+        return this;
+    }
+
+    /**
+     * @param holeDensity is the chance of each pixel being transparent (0-1).
+     */
+    public SyntheticMap setHoleDensity(double holeDensity) {
+        this.holeDensity = holeDensity;
+        return this;
+    }
+
+    /**
+     * Draws a map.
+     * @param width is the width of the map in pixels.
+     * @param height is the height of the map in pixels.
+     * @return the map, with an alpha channel.
+     */
+    public BufferedImage generate(int width, int height) {
+        Random random = new Random(this.seed);
+        boolean[] roadColumns = new boolean[width];
+        boolean[] roadRows = new boolean[height];
+        for (int x = 0; x < width; x++)
+            roadColumns[x] = random.nextDouble() < this.roadDensity;
+        for (int y = 0; y < height; y++)
+            roadRows[y] = random.nextDouble() < this.roadDensity;
+        double totalWeight = 0;
+        for (double w : this.blockTypeWeights)
+            totalWeight += w;
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Draw every value even for roads and holes, so that changing one setting leaves the rest in place
+                int blockType = pick(random.nextDouble() * totalWeight);
+                int stories = this.minStories + random.nextInt(this.maxStories - this.minStories + 1);
+                int green = random.nextInt(this.maxElevation + 1);
+                boolean hole = random.nextDouble() < this.holeDensity;
+                int argb;
+                if (hole) {
+                    argb = 0;
+                } else if (roadColumns[x] || roadRows[y]) {
+                    argb = 0xFF000000 | green << 16 | green << 8 | green;
+                } else {
+                    // Use the middle of the range of each value, so that it survives rounding when read back
+                    int blue = (int) ((stories + 0.5) * 256.0 / NUM_STORIES);
+                    int red = pickRed(blockType, green, blue);
+                    argb = 0xFF000000 | red << 16 | green << 8 | blue;
+                }
+                image.setRGB(x, y, argb);
+            }
+        }
+        return image;
+    }
+
+    private int pick(double r) {
+        for (int t = 0; t < NUM_BLOCK_TYPES - 1; t++) {
+            r -= this.blockTypeWeights[t];
+            if (r < 0)
+                return t;
+        }
+        return NUM_BLOCK_TYPES - 1;
+    }
+
+    /**
+     * Picks a red value for a block type that keeps the pixel from being read as a road. The range of red values of
+     * a block type is wider than twice the leeway, so there is always one.
+     */
+    private static int pickRed(int blockType, int green, int blue) {
+        int low = (int) Math.ceil(blockType * 256.0 / NUM_BLOCK_TYPES);
+        int high = (int) Math.ceil((blockType + 1) * 256.0 / NUM_BLOCK_TYPES) - 1;
+        int red = (low + high) / 2;
+        if (Math.abs(red - green) >= GRAYSCALE_LEEWAY || Math.abs(blue - green) >= GRAYSCALE_LEEWAY
+                || Math.abs(blue - red) >= GRAYSCALE_LEEWAY)
+            return red;
+        return green - GRAYSCALE_LEEWAY >= low ? green - GRAYSCALE_LEEWAY : green + GRAYSCALE_LEEWAY;
+    }
+
+    /**
+     * Writes a map to a PNG file.
+     * @param args are the PNG file to write, the width and height, and optionally the seed and road density.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: SyntheticMap <output png> <width> <height> [seed] [road density]");
+            return;
+        }
+        SyntheticMap map = new SyntheticMap(args.length > 3 ? Long.parseLong(args[3]) : 0);
+        if (args.length > 4)
+            map.setRoadDensity(Double.parseDouble(args[4]));
+        ImageIO.write(map.generate(Integer.parseInt(args[1]), Integer.parseInt(args[2])), "png", new File(args[0]));
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import java.util.Locale;
+
+/**
+ * Compares the batched and scalar vertex transform kernels by placing one library building many times, as generation
+ * does, with a different rotation and position for each instance. Each kernel is run a number of times after a warm up
+ * run and its fastest run is reported. The two kernels are checked to produce the same vertices.
+ *
+ * Usage: TransformBenchmark [-shape n -stories n] [-instances n] [-runs n]
+ *
+ * The largest building in the library is used unless one is given.
+ */
+public class TransformBenchmark {
+
+    private TransformBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int shape = -1, stories = -1;
+        int instances = 2000;
+        int runs = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-shape":
+                    shape = Integer.parseInt(args[++i]);
+                    break;
+                case "-stories":
+                    stories = Integer.parseInt(args[++i]);
+                    break;
+                case "-instances":
+                    instances = Integer.parseInt(args[++i]);
+                    break;
+                case "-runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        if (shape < 0 || stories < 0) {
+            int largest = -1;
+            for (int t = 0; t < MeshLibrary.NUM_SHAPE_TYPES; t++) {
+                for (int s = 0; s < MeshLibrary.NUM_STORIES; s++) {
+                    int vertices = MeshLibrary.getInfo(t, s).getVertexCount();
+                    if (vertices > largest) {
+                        largest = vertices;
+                        shape = t;
+                        stories = s;
+                    }
+                }
+            }
+        }
+        Prototype prototype = MeshLibrary.get(shape, stories);
+        Main.print(MeshLibrary.getFileName(shape, stories) + ": " + prototype.getVertexCount() + " vertices, "
+                + instances + " instances");
+
+        MeshBuffer scalar = new HeapMeshBuffer();
+        MeshBuffer batched = new HeapMeshBuffer();
+        TransformKernel kernel = new TransformKernel();
+        long scalarTime = Long.MAX_VALUE, batchedTime = Long.MAX_VALUE;
+        // The first run of each kernel warms up the JIT and is not recorded
+        for (int r = 0; r <= runs; r++) {
+            long time = run(prototype, scalar, null, instances);
+            if (r > 0)
+                scalarTime = Math.min(scalarTime, time);
+            time = run(prototype, batched, kernel, instances);
+            if (r > 0)
+                batchedTime = Math.min(batchedTime, time);
+        }
+
+        long mismatches = 0;
+        for (int v = 0; v < scalar.getVertexCount(); v++)
+            if (scalar.getX(v) != batched.getX(v) || scalar.getY(v) != batched.getY(v) || scalar.getZ(v) != batched.getZ(v))
+                mismatches++;
+        long vertices = (long) prototype.getVertexCount() * instances;
+        Main.print(String.format(Locale.ROOT, "scalar:  %.1f ms, %.0f vertices/s", scalarTime / 1e6, vertices / (scalarTime / 1e9)));
+        Main.print(String.format(Locale.ROOT, "batched: %.1f ms, %.0f vertices/s", batchedTime / 1e6, vertices / (batchedTime / 1e9)));
+        Main.print(String.format(Locale.ROOT, "speedup: %.2fx, %d differing vertices", (double) scalarTime / batchedTime, mismatches));
+        if (mismatches > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Places the instances of a building into an emptied mesh.
+     * @param kernel is the batched kernel to use, or null for the scalar kernel.
+     * @return the time taken in nanoseconds.
+     */
+    private static long run(Prototype prototype, MeshBuffer m, TransformKernel kernel, int instances) {
+        m.truncate(0, 0);
+        long start = System.nanoTime();
+        for (int n = 0; n < instances; n++) {
+            // Spread the instances over a grid of sectors with the four angles blocks use
+            double angle = Math.toRadians(90 * (n % 4));
+            double cosT = Math.cos(angle), sinT = Math.sin(angle);
+            double dx = Grid.SECTION_SIZE * (n % 64), dy = -Grid.SECTION_SIZE * (n / 64);
+            if (kernel != null)
+                kernel.place(prototype, m, cosT, sinT, 1, dx, dy, 0);
+            else
+                TransformKernel.placeScalar(prototype, m, cosT, sinT, 1, dx, dy, 0);
+        }
+        return System.nanoTime() - start;
+    }
+}
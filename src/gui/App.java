@@ -17,7 +17,10 @@
 
 package gui;
 
+import classes.HeightmapPreview;
+import classes.IncrementalCity;
 import classes.Main;
+import classes.MeshFormat;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -29,6 +32,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static classes.Main.print;
 
@@ -38,11 +47,46 @@ import static classes.Main.print;
 public class App {
     public static final int GRAYSCALE_LEEWAY = 15;
     public static int scale = 1;
+    // Decimal places written for each output coordinate (3 = millimetres)
+    public static int precision = 3;
+    // File format of the generated chunks
+    public static MeshFormat format = MeshFormat.OFF;
+    // Drop building floors and walls hidden against neighbouring buildings in the same block
+    public static boolean cullHiddenFaces = false;
+    // Gzip chunk files, compressing on all cores
+    public static boolean compressOutput = false;
+    // Only estimate the size of the output, and the triangle count to stay within (0 for no limit)
+    public static boolean dryRun = false;
+    public static long triangleBudget = 0;
+    // Leave out buildings whose footprints overlap buildings placed before them, including in neighbouring blocks
+    public static boolean resolveCollisions = false;
+    // Replace the ground under road pixels with a merged road surface
+    public static boolean generateRoads = false;
+    // Write the whole city to one mesh file instead of a file per chunk
+    public static boolean mergeChunks = false;
+    // Keep the last city generated from the UI in memory and regenerate only the blocks an edit to the input changes.
+    // Off by default, as the geometry of every chunk then stays in memory between generations.
+    public static boolean incrementalEdits = false;
+    // Transform building vertices in batches that compile to SIMD instructions, rather than one at a time
+    public static boolean batchTransform = true;
+    // Reorder the triangles and vertices of each building for the renderer's vertex cache
+    public static boolean optimizeVertexCache = false;
+    // Record each complete chunk in a journal, syncing it to disk, and on resuming keep the chunks it records. Off by
+    // default since the syncs slow a run down, --journal and --resume turn it on
+    public static boolean journalRun = false;
+    public static boolean resume = false;
+    // Print the progress of generation through every building
+    public static boolean verbose = true;
+    // Keep generated geometry off the Java heap, spilling to temporary files past the budget (in bytes)
+    public static boolean offHeap = false;
+    public static long offHeapBudget = 512L * 1024 * 1024;
     // Constants for image processing
     private final String PATH = "Input/input.png";
     private final int MAX_HEIGHT = 150;
     private final int MAX_WIDTH = 150;
     private final int MAX_SCALE = 5;
+    private final int PREVIEW_SIZE = 250;
+    private final int MAX_CACHED_INPUTS = 4;
     // Static values to be used by the Main class
     public static boolean hasAlpha;
     public static BufferedImage inputImage;
@@ -50,8 +94,32 @@ public class App {
     private static int longestLine = 0;
     private BufferedImage previewImage;
     private BufferedImage[] scaledInputImages;
+    // Images are decoded and scaled off the event thread. Previews are cached per scale for the current input and
+    // the scaled images are cached per input file, so that reopening or scrubbing does not redo the work.
+    private final ExecutorService previewExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "preview");
+        t.setDaemon(true);
+        return t;
+    });
+    private final BufferedImage[] previewCache = new BufferedImage[MAX_SCALE];
+    private final Map<String, BufferedImage[]> inputCache = new LinkedHashMap<String, BufferedImage[]>(MAX_CACHED_INPUTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BufferedImage[]> eldest) {
+            return size() > MAX_CACHED_INPUTS;
+        }
+    };
+    private Future<?> pendingLoad;
+    private Future<?> pendingPreview;
+    // Incremented for every input loaded, so that results for an older input are dropped
+    private int inputVersion;
+    // The input file and its modification time when it was loaded, to pick up edits saved to it
+    private File inputFile;
+    private long inputModified;
+    private final IncrementalCity city = new IncrementalCity(null);
     private JButton inputButton;
     private JButton generateButton;
+    private JButton previewButton;
+    private JButton optionsButton;
     private JPanel mainPanel;
     private JLabel image;
     private JLabel imageLabel;
@@ -93,24 +161,7 @@ public class App {
             e.printStackTrace();
         }
         // Check for an existing input image in PATH
-        try {
-            File f = new File(PATH);
-            inputImage = ImageIO.read(f);
-            // Restrict the size of the image to maximum dimensions
-            if (inputImage.getHeight() > MAX_HEIGHT)
-                inputImage = resize(inputImage, inputImage.getWidth(), MAX_HEIGHT, true);
-            if (inputImage.getWidth() > MAX_WIDTH)
-                inputImage = resize(inputImage, MAX_WIDTH, inputImage.getHeight(), true);
-            // Process the input image into an array of scaled images for each sector scale option
-            buildScaledImages();
-            // Set up the preview
-            previewImage = resize(scaledInputImages[0],250,250, false);
-            this.image.setText("");
-            this.image.setIcon(new ImageIcon(previewImage));
-            this.imageLabel.setVisible(true);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        loadInput(new File(PATH), false, null);
 
         // Set up a file input dialog
         inputButton.addActionListener(e -> {
@@ -135,49 +186,217 @@ public class App {
             });
             int returnVal = fc.showOpenDialog(inputButton);
             if (returnVal == JFileChooser.APPROVE_OPTION) {
-                try {
-                    File f = fc.getSelectedFile();
-                    hasAlpha = Utils.getExtension(f).toLowerCase().equals("png");
-                    inputImage = ImageIO.read(f);
-                    // Restrict the size of the image to maximum dimensions
-                    if (inputImage.getHeight() > MAX_HEIGHT)
-                        inputImage = resize(inputImage, inputImage.getWidth(), MAX_HEIGHT, true);
-                    if (inputImage.getWidth() > MAX_WIDTH)
-                        inputImage = resize(inputImage, MAX_WIDTH, inputImage.getHeight(), true);
-                    // Process the input image into an array of scaled images for each sector scale option
-                    buildScaledImages();
-                    // Set up the preview
-                    previewImage = resize(scaledInputImages[0], 250,250, false);
-                    this.image.setText("");
-                    this.image.setIcon(new ImageIcon(previewImage));
-                    this.imageLabel.setVisible(true);
-                    scaleSlider.setValue(1);
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+                File f = fc.getSelectedFile();
+                hasAlpha = Utils.getExtension(f).toLowerCase().equals("png");
+                loadInput(f, true, null);
             }
         });
 
         // Call the generator when the generate button is pressed
         generateButton.addActionListener(e ->  {
-            // Set up the input image with the proper scale before generating
+            // The input is still loading
+            if (scaledInputImages == null)
+                return;
+            // Load the input again first if it was edited since it was loaded
+            if (inputFile.lastModified() != inputModified)
+                loadInput(inputFile, false, this::generate);
+            else
+                generate();
+        });
+
+        // Draw a quick top-down picture of the city in place of the input preview
+        previewButton.addActionListener(e -> {
+            if (scaledInputImages == null)
+                return;
             inputImage = scaledInputImages[scaleSlider.getValue()-1];
             scale = scaleSlider.getValue();
-            new Thread(Main::generate).start();
+            BufferedImage img = inputImage;
+            int version = inputVersion;
+            if (pendingPreview != null)
+                pendingPreview.cancel(true);
+            pendingPreview = previewExecutor.submit(() -> {
+                long start = System.nanoTime();
+                BufferedImage city = resize(HeightmapPreview.render(img), PREVIEW_SIZE, PREVIEW_SIZE, false);
+                print("Rendered city preview in " + (System.nanoTime() - start) / 1000000 + " ms");
+                SwingUtilities.invokeLater(() -> {
+                    if (version != inputVersion || scaleSlider.getValue() != scale)
+                        return;
+                    showPreview(city);
+                    imageLabel.setText("(City preview resized to " + PREVIEW_SIZE + "x" + PREVIEW_SIZE + ")");
+                });
+            });
         });
 
+        optionsButton.addActionListener(e -> showOptions());
+
         // Set up a state change listener for the sector scale slider
-        scaleSlider.addChangeListener(e -> {
-            // Swap the preview for the correctly scaled image
-            int scale = scaleSlider.getValue();
-            BufferedImage img = scaledInputImages[scale-1];
-            previewImage = resize(new BufferedImage(img.getColorModel(), img.getRaster(), img.isAlphaPremultiplied(), null), 250, 250, false);
-            this.image.setText("");
-            this.image.setIcon(new ImageIcon(previewImage));
-            this.imageLabel.setVisible(true);
+        scaleSlider.addChangeListener(e -> showScale(scaleSlider.getValue()));
+    }
+
+    /**
+     * Calls the generator with the input image at the selected scale.
+     */
+    private void generate() {
+        // Set up the input image with the proper scale before generating
+        inputImage = scaledInputImages[scaleSlider.getValue()-1];
+        scale = scaleSlider.getValue();
+        BufferedImage img = inputImage;
+        new Thread(incrementalEdits ? () -> city.generate(img) : Main::generate).start();
+    }
+
+    /**
+     * Shows the generation options in a dialog and applies them to the next generation if the dialog is accepted.
+     */
+    private void showOptions() {
+        JComboBox<MeshFormat> formatBox = new JComboBox<>(MeshFormat.values());
+        formatBox.setSelectedItem(format);
+        JSpinner precisionSpinner = new JSpinner(new SpinnerNumberModel(precision, 0, Main.MAX_PRECISION, 1));
+        JSpinner budgetSpinner = new JSpinner(new SpinnerNumberModel(Long.valueOf(triangleBudget), Long.valueOf(0),
+                Long.valueOf(Long.MAX_VALUE), Long.valueOf(100000)));
+        JCheckBox cullBox = new JCheckBox("Remove hidden faces between buildings", cullHiddenFaces);
+        JCheckBox gzipBox = new JCheckBox("Gzip chunk files", compressOutput);
+        JCheckBox dryRunBox = new JCheckBox("Dry run, only estimate the output", dryRun);
+        JCheckBox mergeBox = new JCheckBox("Write the whole city to one file", mergeChunks);
+        JCheckBox roadsBox = new JCheckBox("Generate roads", generateRoads);
+        JCheckBox collisionsBox = new JCheckBox("Leave out overlapping buildings", resolveCollisions);
+        JCheckBox vertexCacheBox = new JCheckBox("Reorder buildings for the vertex cache", optimizeVertexCache);
+        JCheckBox incrementalBox = new JCheckBox("Regenerate only what an edit changes (keeps the city in memory)",
+                incrementalEdits);
+        JCheckBox offHeapBox = new JCheckBox("Keep geometry off the Java heap", offHeap);
+
+        JPanel values = new JPanel(new GridLayout(0, 2, 5, 5));
+        values.add(new JLabel("Format"));
+        values.add(formatBox);
+        values.add(new JLabel("Decimal places"));
+        values.add(precisionSpinner);
+        values.add(new JLabel("Triangle budget (0 for none)"));
+        values.add(budgetSpinner);
+        JPanel switches = new JPanel(new GridLayout(0, 1));
+        for (JCheckBox box : new JCheckBox[]{cullBox, gzipBox, dryRunBox, mergeBox, roadsBox, collisionsBox,
+                vertexCacheBox, incrementalBox, offHeapBox})
+            switches.add(box);
+        JPanel panel = new JPanel(new BorderLayout(0, 10));
+        panel.add(values, BorderLayout.NORTH);
+        panel.add(switches, BorderLayout.CENTER);
+        if (JOptionPane.showConfirmDialog(mainPanel, panel, "Options", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+            return;
+
+        format = (MeshFormat) formatBox.getSelectedItem();
+        precision = (Integer) precisionSpinner.getValue();
+        triangleBudget = (Long) budgetSpinner.getValue();
+        cullHiddenFaces = cullBox.isSelected();
+        compressOutput = gzipBox.isSelected();
+        dryRun = dryRunBox.isSelected();
+        mergeChunks = mergeBox.isSelected();
+        generateRoads = roadsBox.isSelected();
+        resolveCollisions = collisionsBox.isSelected();
+        optimizeVertexCache = vertexCacheBox.isSelected();
+        offHeap = offHeapBox.isSelected();
+        if (incrementalEdits && !incrementalBox.isSelected()) {
+            // Free the kept city, waiting for any generation using it off the event thread
+            new Thread(city::clear).start();
+        }
+        incrementalEdits = incrementalBox.isSelected();
+    }
+
+    /**
+     * Decodes an input image and processes it into the scaled images in the background, then shows its preview.
+     * Any input still loading is abandoned.
+     * @param f is the image file.
+     * @param resetScale is true to move the scale slider back to 1 once loaded.
+     * @param onLoad is run on the event thread once the input is loaded, or is null.
+     */
+    private void loadInput(File f, boolean resetScale, Runnable onLoad) {
+        int version = ++inputVersion;
+        inputFile = f;
+        inputModified = f.lastModified();
+        if (pendingLoad != null)
+            pendingLoad.cancel(true);
+        if (pendingPreview != null)
+            pendingPreview.cancel(true);
+        scaledInputImages = null;
+        String key = f.getAbsolutePath() + ":" + f.lastModified() + ":" + hasAlpha;
+        BufferedImage[] cached;
+        synchronized (inputCache) {
+            cached = inputCache.get(key);
+        }
+        pendingLoad = previewExecutor.submit(() -> {
+            try {
+                BufferedImage[] scaled = cached;
+                if (scaled == null) {
+                    BufferedImage input = ImageIO.read(f);
+                    if (input == null)
+                        throw new IOException("Unsupported image format: " + f);
+                    // Restrict the size of the image to maximum dimensions
+                    if (input.getHeight() > MAX_HEIGHT)
+                        input = resize(input, input.getWidth(), MAX_HEIGHT, true);
+                    if (input.getWidth() > MAX_WIDTH)
+                        input = resize(input, MAX_WIDTH, input.getHeight(), true);
+                    // Process the input image into an array of scaled images for each sector scale option
+                    scaled = buildScaledImages(input);
+                    synchronized (inputCache) {
+                        inputCache.put(key, scaled);
+                    }
+                }
+                BufferedImage preview = resize(scaled[0], PREVIEW_SIZE, PREVIEW_SIZE, false);
+                BufferedImage[] images = scaled;
+                SwingUtilities.invokeLater(() -> {
+                    if (version != inputVersion)
+                        return;
+                    inputImage = images[0];
+                    scaledInputImages = images;
+                    Arrays.fill(previewCache, null);
+                    previewCache[0] = preview;
+                    if (resetScale && scaleSlider.getValue() != 1)
+                        scaleSlider.setValue(1);
+                    else
+                        showScale(scaleSlider.getValue());
+                    if (onLoad != null)
+                        onLoad.run();
+                });
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
         });
     }
 
+    /**
+     * Shows the preview for a sector scale, scaling it in the background the first time it is requested. A preview
+     * still being scaled for another position of the slider is abandoned.
+     * @param scale is the sector scale to preview.
+     */
+    private void showScale(int scale) {
+        if (scaledInputImages == null)
+            return;
+        if (pendingPreview != null)
+            pendingPreview.cancel(true);
+        if (previewCache[scale-1] != null) {
+            showPreview(previewCache[scale-1]);
+            return;
+        }
+        BufferedImage img = scaledInputImages[scale-1];
+        int version = inputVersion;
+        pendingPreview = previewExecutor.submit(() -> {
+            BufferedImage preview = resize(img, PREVIEW_SIZE, PREVIEW_SIZE, false);
+            SwingUtilities.invokeLater(() -> {
+                if (version != inputVersion)
+                    return;
+                previewCache[scale-1] = preview;
+                if (scaleSlider.getValue() == scale)
+                    showPreview(preview);
+            });
+        });
+    }
+
+    private void showPreview(BufferedImage preview) {
+        previewImage = preview;
+        this.image.setText("");
+        this.image.setIcon(new ImageIcon(previewImage));
+        this.imageLabel.setText("(Image preview resized to " + PREVIEW_SIZE + "x" + PREVIEW_SIZE + ")");
+        this.imageLabel.setVisible(true);
+    }
+
     private void updateTextArea(final String text) {
         SwingUtilities.invokeLater(() ->  {
             if (text.length() > longestLine)
@@ -213,33 +432,37 @@ public class App {
     }
 
     /**
-     * Initializes the scaledInputImages array with a different image processed in each scale corresponding to its index
+     * Builds an array with a different image processed in each scale corresponding to its index
+     * @param input is the input image to process.
+     * @return the processed image for each sector scale.
      */
-    private void buildScaledImages() {
-        this.scaledInputImages = new BufferedImage[MAX_SCALE];
-        for (int i = 0; i < this.scaledInputImages.length; i++) {
-            // Draw the subimage to an empty image with identical dimensions and type to deep copy
-            BufferedImage sub = inputImage.getSubimage(0, 0, inputImage.getWidth(), inputImage.getHeight());
-            scaledInputImages[i] = new BufferedImage(inputImage.getWidth(), inputImage.getHeight(), inputImage.getType());
-            Graphics2D g = scaledInputImages[i].createGraphics();
+    private BufferedImage[] buildScaledImages(BufferedImage input) {
+        BufferedImage[] scaledImages = new BufferedImage[MAX_SCALE];
+        // Images decoded into a custom layout cannot be recreated by type
+        int type = input.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_ARGB : input.getType();
+        for (int i = 0; i < scaledImages.length; i++) {
+            // Draw the image to an empty image with identical dimensions and type to deep copy
+            scaledImages[i] = new BufferedImage(input.getWidth(), input.getHeight(), type);
+            Graphics2D g = scaledImages[i].createGraphics();
             try {
-                g.drawImage(sub, 0, 0, null);
+                g.drawImage(input, 0, 0, null);
             }
             finally {
                 g.dispose();
             }
 
             // Check every nth pixel where n = sector scale
-            for (int x = 0; x < this.scaledInputImages[i].getWidth(); x+=i+1) {
-                for (int y = 0; y < this.scaledInputImages[i].getHeight(); y+=i+1) {
+            for (int x = 0; x < scaledImages[i].getWidth(); x+=i+1) {
+                for (int y = 0; y < scaledImages[i].getHeight(); y+=i+1) {
                     // A sector fails the scale check if it has out of bounds pixels or contains any grayscale pixels
-                    if (containsGrayscale(this.scaledInputImages[i], i+1, x, y) || x+i+1 > this.scaledInputImages[i].getWidth() || y+i+1 > this.scaledInputImages[i].getHeight()) {
+                    if (containsGrayscale(scaledImages[i], i+1, x, y) || x+i+1 > scaledImages[i].getWidth() || y+i+1 > scaledImages[i].getHeight()) {
                         // Sectors that fail the scale check are disabled entirely
-                        disableSector(this.scaledInputImages[i], i + 1, x, y);
+                        disableSector(scaledImages[i], i + 1, x, y);
                     }
                 }
             }
         }
+        return scaledImages;
     }
 
     /**
@@ -256,7 +479,7 @@ public class App {
             for (int k = y; k < y+i; k++) {
                 if (k >= img.getHeight() || isGrayscale(img.getRGB(c, k)))
                     continue;
-                img.setRGB(c, k, new Color(0, 0, 0, 0).getRGB());
+                img.setRGB(c, k, 0);
             }
         }
     }
@@ -289,14 +512,15 @@ public class App {
      * @return true if the pixel is grayscale, false otherwise.
      */
     private boolean isGrayscale(int rgb) {
-        Color c = new Color(rgb, App.hasAlpha);
-        return (c.getBlue() < c.getGreen() + GRAYSCALE_LEEWAY && c.getBlue() > c.getGreen() - GRAYSCALE_LEEWAY)
-                && (c.getRed() < c.getGreen() + GRAYSCALE_LEEWAY && c.getRed() > c.getGreen() - GRAYSCALE_LEEWAY)
-                && (c.getBlue() < c.getRed() + GRAYSCALE_LEEWAY && c.getBlue() > c.getRed() - GRAYSCALE_LEEWAY);
+        int red = (rgb >> 16) & 0xFF, green = (rgb >> 8) & 0xFF, blue = rgb & 0xFF;
+        return (blue < green + GRAYSCALE_LEEWAY && blue > green - GRAYSCALE_LEEWAY)
+                && (red < green + GRAYSCALE_LEEWAY && red > green - GRAYSCALE_LEEWAY)
+                && (blue < red + GRAYSCALE_LEEWAY && blue > red - GRAYSCALE_LEEWAY);
     }
 
     /**
-     * Resizes a given BufferedImage to a new height and width, scaling the image in the process.
+     * Resizes a given BufferedImage to a new height and width, scaling the image in the process. Bilinear filtering
+     * is used, halving the image in steps when shrinking by more than half so that no detail is skipped.
      * @param img is the image to be scaled to new dimensions.
      * @param boundW is the new width to scale to.
      * @param boundH is the new height to scale to.
@@ -322,14 +546,20 @@ public class App {
             newW = boundW;
         }
 
-        // Create a new instance of the given image with new height and width
-        Image tmp = img.getScaledInstance(newW, newH, Image.SCALE_SMOOTH);
-        BufferedImage rImg = new BufferedImage(newW, newH, BufferedImage.TYPE_INT_ARGB);
-
-        // Paint the given image to the new scaled image
-        Graphics2D g2d = rImg.createGraphics();
-        g2d.drawImage(tmp, 0, 0, null);
-        g2d.dispose();
+        BufferedImage rImg = img;
+        int w = img.getWidth();
+        int h = img.getHeight();
+        do {
+            w = w / 2 > newW ? w / 2 : newW;
+            h = h / 2 > newH ? h / 2 : newH;
+            // Paint the current image to a new scaled image
+            BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = next.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(rImg, 0, 0, w, h, null);
+            g2d.dispose();
+            rImg = next;
+        } while (w != newW || h != newH);
 
         return rImg;
     }
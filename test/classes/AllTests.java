@@ -0,0 +1,35 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+/**
+ * Runs every regression test, exiting with status 1 if any check failed. Run from the project directory.
+ */
+public class AllTests {
+    public static void main(String[] args) throws Exception {
+        Check check = new Check("AllTests");
+        MeshSinkTest.run(check);
+        MeshPackTest.run(check);
+        FaceCullerTest.run(check);
+        GoldenOutputTest.run(check);
+        VertexCacheOptimizerTest.run(check);
+        IncrementalCityTest.run(check);
+        RunJournalTest.run(check);
+        check.finish();
+    }
+}
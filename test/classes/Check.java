@@ -0,0 +1,93 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Minimal assertions for the regression tests. The tests are plain programs so that they need nothing beyond the JDK:
+ * a failed check is printed and counted, and finish() exits with status 1 once every check has run.
+ *
+ * The tests are run from the project directory, where the meshes directory is found.
+ */
+class Check {
+    private final String name;
+    private int checks, failures;
+
+    Check(String name) {
+        this.name = name;
+    }
+
+    void that(boolean condition, String description) {
+        this.checks++;
+        if (!condition) {
+            this.failures++;
+            System.out.println("FAIL " + this.name + ": " + description);
+        }
+    }
+
+    void equal(Object expected, Object actual, String description) {
+        that(expected == null ? actual == null : expected.equals(actual),
+                description + ": expected " + expected + " but was " + actual);
+    }
+
+    void equal(byte[] expected, byte[] actual, String description) {
+        that(Arrays.equals(expected, actual), description + " differs");
+    }
+
+    /**
+     * Checks that the action fails with the given exception type.
+     */
+    void fails(Class<? extends Exception> type, Action action, String description) {
+        try {
+            action.run();
+            that(false, description + ": no exception");
+        } catch (Exception e) {
+            that(type.isInstance(e), description + ": " + e);
+        }
+    }
+
+    /**
+     * Prints the result and exits with status 1 if any check failed.
+     */
+    void finish() {
+        System.out.println(this.name + ": " + (this.checks - this.failures) + " of " + this.checks + " checks passed");
+        if (this.failures > 0)
+            System.exit(1);
+    }
+
+    static File createTempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void delete(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    interface Action {
+        void run() throws Exception;
+    }
+}
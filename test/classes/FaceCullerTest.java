@@ -0,0 +1,116 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Regression tests for FaceCuller: walls pressed against each other are removed, and the floors of buildings are only
+ * removed where they rest on the ground.
+ */
+public class FaceCullerTest {
+
+    public static void main(String[] args) throws Exception {
+        Check check = new Check("FaceCullerTest");
+        run(check);
+        check.finish();
+    }
+
+    static void run(Check check) throws Exception {
+        checkTouchingCubes(check);
+        checkFloors(check);
+    }
+
+    /**
+     * Two unit cubes side by side hide the two triangles of each of the faces they share.
+     */
+    private static void checkTouchingCubes(Check check) {
+        MeshBuffer m = new HeapMeshBuffer();
+        addCube(m, 0);
+        addCube(m, 1);
+        check.equal(4, FaceCuller.cullBlock(m, 0, new int[]{0, 12}, 2), "faces hidden between touching cubes");
+        check.equal(20, m.getFaceCount(), "faces left");
+
+        m = new HeapMeshBuffer();
+        addCube(m, 0);
+        addCube(m, 1.1);
+        check.equal(0, FaceCuller.cullBlock(m, 0, new int[]{0, 12}, 2), "faces hidden between cubes apart");
+    }
+
+    private static void addCube(MeshBuffer m, double x) {
+        int base = m.getVertexCount();
+        for (int i = 0; i < 8; i++)
+            m.addVertex(x + (i & 1), i >> 1 & 1, i >> 2 & 1);
+        int[][] quads = {{0, 2, 3, 1}, {4, 5, 7, 6}, {0, 1, 5, 4}, {2, 6, 7, 3}, {0, 4, 6, 2}, {1, 3, 7, 5}};
+        for (int[] q : quads) {
+            m.addFace(base + q[0], base + q[1], base + q[2]);
+            m.addFace(base + q[0], base + q[2], base + q[3]);
+        }
+    }
+
+    /**
+     * The buildings of a synthetic chunk stand above the ground, so culling keeps every one of their floors.
+     */
+    private static void checkFloors(Check check) throws IOException {
+        boolean hasAlpha = App.hasAlpha, verbose = App.verbose, cull = App.cullHiddenFaces;
+        File dir = Check.createTempDir("culler");
+        try {
+            App.hasAlpha = true;
+            App.verbose = false;
+            BufferedImage image = new SyntheticMap(8).generate(6, 6);
+            int[] bounds = {0, 0, image.getWidth(), image.getHeight()};
+            int[] floors = new int[2];
+            for (int pass = 0; pass < 2; pass++) {
+                App.cullHiddenFaces = pass == 1;
+                try (Grid grid = Main.buildChunk(image, bounds, MeshLibrary.NUM_STORIES - 1, null, false, false)) {
+                    ChunkInfo info = grid.output(dir, pass);
+                    OffReader mesh = OffReader.parse(new File(dir, info.getFileName()));
+                    floors[pass] = countFloors(mesh.getVertices(), mesh.getFaces());
+                }
+            }
+            check.that(floors[0] > 0, "buildings have floors");
+            check.equal(floors[0], floors[1], "floors above the ground kept by culling");
+        } finally {
+            App.hasAlpha = hasAlpha;
+            App.verbose = verbose;
+            App.cullHiddenFaces = cull;
+            Check.delete(dir);
+        }
+    }
+
+    /**
+     * @return the number of flat, downward facing faces above the ground.
+     */
+    private static int countFloors(float[] v, int[] faces) {
+        int count = 0;
+        for (int f = 0; f < faces.length; f += 3) {
+            int a = faces[f] * 3, b = faces[f + 1] * 3, c = faces[f + 2] * 3;
+            float z = v[a + 2];
+            if (z <= Grid.GROUND_Z + FaceCuller.EPSILON || v[b + 2] != z || v[c + 2] != z)
+                continue;
+            double nz = (v[b] - v[a]) * (v[c + 1] - v[a + 1]) - (v[b + 1] - v[a + 1]) * (v[c] - v[a]);
+            if (nz < 0)
+                count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Regression test for the output of the sample input: with the default options, Input/input.png gives the same chunk
+ * files as the generator did before the building layouts were shared through BlockTemplate. A change to the output
+ * that is meant to happen must update the hashes below.
+ */
+public class GoldenOutputTest {
+    private static final String INPUT = "Input/input.png";
+    // SHA-256 of each chunk file of the sample input at sector scale 1
+    private static final String[] CHUNK_HASHES = {
+            "ac384fa0276d5453f69ecf2040046fea3716ff06c9576ec4c4827825aa8f9bd1",
+            "c1d9b093e88c359ed29f9ee9fd7c71660ad337ce0c7498ce744af17f7537a66a",
+            "0e6361715f461ca48dfda2d32ea9c062e8347b3804c19a985642aa034132e890",
+            "ee5e07f07edc5432069da1d0b73dfcc17d8115ecdd4bf4929690e4f5d554e3ed"
+    };
+
+    public static void main(String[] args) throws Exception {
+        Check check = new Check("GoldenOutputTest");
+        run(check);
+        check.finish();
+    }
+
+    static void run(Check check) throws Exception {
+        int scale = App.scale;
+        boolean hasAlpha = App.hasAlpha, verbose = App.verbose;
+        File dir = Check.createTempDir("golden");
+        try {
+            App.scale = 1;
+            App.hasAlpha = true;
+            App.verbose = false;
+            BufferedImage image = ImageIO.read(new File(INPUT));
+            check.that(image != null, "sample input read");
+            Main.generate(image, dir);
+            for (int num = 0; num < CHUNK_HASHES.length; num++) {
+                File chunk = new File(dir, "city_chunk_" + num + ".off");
+                check.that(chunk.isFile(), chunk.getName() + " written");
+                if (chunk.isFile())
+                    check.equal(CHUNK_HASHES[num], Grid.toHex(Grid.newDigest().digest(Files.readAllBytes(chunk.toPath()))),
+                            chunk.getName() + " hash");
+            }
+            check.that(!new File(dir, "city_chunk_" + CHUNK_HASHES.length + ".off").exists(), "no extra chunks");
+        } finally {
+            App.scale = scale;
+            App.hasAlpha = hasAlpha;
+            App.verbose = verbose;
+            Check.delete(dir);
+        }
+    }
+}
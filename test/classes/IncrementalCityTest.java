@@ -0,0 +1,183 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Regression test for IncrementalCity: after each edit to a synthetic map, the files written by regenerating only the
+ * changed Blocks are byte for byte those of generating the whole city from scratch. The edits cover single pixels,
+ * whole areas that outgrow the room left for their Blocks, new roads, edits that leave enough room behind for the
+ * meshes to be compacted, an unchanged image, and edits that change the story limit of a triangle budget.
+ */
+public class IncrementalCityTest {
+    private static final int WIDTH = 40, HEIGHT = 36, SCALE = 2;
+
+    public static void main(String[] args) throws Exception {
+        Check check = new Check("IncrementalCityTest");
+        run(check);
+        check.finish();
+    }
+
+    static void run(Check check) throws Exception {
+        int scale = App.scale;
+        boolean hasAlpha = App.hasAlpha, verbose = App.verbose, cull = App.cullHiddenFaces, roads = App.generateRoads;
+        boolean collisions = App.resolveCollisions, journal = App.journalRun;
+        long budget = App.triangleBudget;
+        File incremental = Check.createTempDir("incremental"), full = Check.createTempDir("full");
+        try {
+            App.scale = SCALE;
+            App.hasAlpha = true;
+            App.verbose = false;
+            App.cullHiddenFaces = true;
+            App.generateRoads = true;
+            App.resolveCollisions = true;
+            App.journalRun = false;
+            App.triangleBudget = 0;
+            new Rounds(check, incremental, full).run();
+        } finally {
+            App.scale = scale;
+            App.hasAlpha = hasAlpha;
+            App.verbose = verbose;
+            App.cullHiddenFaces = cull;
+            App.generateRoads = roads;
+            App.resolveCollisions = collisions;
+            App.journalRun = journal;
+            App.triangleBudget = budget;
+            Check.delete(incremental);
+            Check.delete(full);
+        }
+    }
+
+    private static class Rounds {
+        private final Check check;
+        private final File incrementalDir, fullDir;
+        private final IncrementalCity city;
+        private final Random random = new Random(7);
+        private BufferedImage image = new SyntheticMap(4).generate(WIDTH, HEIGHT);
+
+        Rounds(Check check, File incrementalDir, File fullDir) {
+            this.check = check;
+            this.incrementalDir = incrementalDir;
+            this.fullDir = fullDir;
+            this.city = new IncrementalCity(incrementalDir);
+        }
+
+        void run() throws IOException {
+            generate("first generation", image -> { });
+            generate("single pixels", image -> {
+                for (int e = 0; e < 3; e++)
+                    image.setRGB(this.random.nextInt(WIDTH), this.random.nextInt(HEIGHT), randomBuilding());
+            });
+            generate("tall area", image -> {
+                // Taller buildings than before, which do not fit the room left for their Blocks
+                for (int x = 4; x < 14; x++)
+                    for (int y = 6; y < 12; y++)
+                        image.setRGB(x, y, image.getRGB(x, y) | 0xFF);
+            });
+            generate("new road", image -> {
+                for (int x = 0; x < WIDTH; x++)
+                    image.setRGB(x, 20, 0xFF141414);
+            });
+            generate("large edit", image -> {
+                for (int e = 0; e < WIDTH * HEIGHT / 3; e++)
+                    image.setRGB(this.random.nextInt(WIDTH), this.random.nextInt(HEIGHT), randomBuilding());
+            });
+            generate("unchanged image", image -> { });
+
+            // A budget that allows 6 stories, and then taller buildings that only fit it with fewer
+            CostEstimator estimator = new CostEstimator(this.image, Main.splitChunks(this.image), null);
+            App.triangleBudget = estimator.getTotalFaces(5);
+            this.check.equal(5, estimator.getStoryCap(App.triangleBudget), "story limit of the budget");
+            generate("triangle budget", image -> { });
+            generate("edit within the budget", image -> image.setRGB(1, 1, image.getRGB(1, 1) & 0xFFFFFF00));
+            generate("edit over the budget", image -> {
+                for (int x = 0; x < WIDTH; x++)
+                    for (int y = 0; y < HEIGHT; y += 3)
+                        if (!isRoad(image.getRGB(x, y)))
+                            image.setRGB(x, y, image.getRGB(x, y) | 0xFF);
+            });
+            estimator = new CostEstimator(this.image, Main.splitChunks(this.image), null);
+            this.check.that(estimator.getStoryCap(App.triangleBudget) < 5, "edit lowers the story limit");
+            generate("edit after the story limit changed", image -> image.setRGB(WIDTH - 1, HEIGHT - 1, randomBuilding()));
+
+            // Without the budget the city is built again, after which every building a story taller each time
+            // outgrows its room, until the room left behind is compacted
+            App.triangleBudget = 0;
+            for (int stories = 0; stories <= 3; stories++) {
+                int blue = (int) ((stories + 0.5) * 256.0 / MeshLibrary.NUM_STORIES);
+                generate(stories + 1 + " story buildings", image -> {
+                    for (int x = 0; x < WIDTH; x++)
+                        for (int y = 0; y < HEIGHT; y++)
+                            if (!isRoad(image.getRGB(x, y)))
+                                image.setRGB(x, y, image.getRGB(x, y) & 0xFFFFFF00 | blue);
+                });
+            }
+        }
+
+        /**
+         * Edits a copy of the image, generates it both ways and compares the output.
+         */
+        private void generate(String description, Consumer<BufferedImage> edit) throws IOException {
+            BufferedImage next = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            next.getGraphics().drawImage(this.image, 0, 0, null);
+            edit.accept(next);
+            this.image = next;
+            this.city.generate(next);
+            Main.generate(next, this.fullDir);
+            compare(description);
+        }
+
+        private void compare(String description) throws IOException {
+            String[] names = this.fullDir.list();
+            Arrays.sort(names);
+            String[] incrementalNames = this.incrementalDir.list();
+            Arrays.sort(incrementalNames);
+            this.check.equal(Arrays.asList(names), Arrays.asList(incrementalNames), description + ": files written");
+            this.check.that(names.length > 1, description + ": chunks written");
+            ArrayList<String> differing = new ArrayList<>();
+            for (String name : names) {
+                File incremental = new File(this.incrementalDir, name);
+                if (!incremental.isFile() || !Arrays.equals(Files.readAllBytes(new File(this.fullDir, name).toPath()),
+                        Files.readAllBytes(incremental.toPath())))
+                    differing.add(name);
+            }
+            this.check.equal(new ArrayList<String>(), differing, description + ": files unlike a full generation");
+        }
+
+        private int randomBuilding() {
+            int green = this.random.nextInt(51), blue = 64 + this.random.nextInt(192);
+            return 0xFF000000 | this.random.nextInt(256) << 16 | green << 8 | blue;
+        }
+
+        private static boolean isRoad(int argb) {
+            int red = argb >> 16 & 0xFF, green = argb >> 8 & 0xFF, blue = argb & 0xFF;
+            return Math.abs(red - green) < App.GRAYSCALE_LEEWAY && Math.abs(blue - green) < App.GRAYSCALE_LEEWAY
+                    && Math.abs(blue - red) < App.GRAYSCALE_LEEWAY;
+        }
+    }
+}
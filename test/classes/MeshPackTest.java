@@ -0,0 +1,144 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Regression tests for the library pack: a pack compiled from meshes/library-clean holds exactly the prototypes
+ * MeshLibrary reads from the OFF files, and damaged packs are refused.
+ */
+public class MeshPackTest {
+
+    public static void main(String[] args) throws Exception {
+        Check check = new Check("MeshPackTest");
+        run(check);
+        check.finish();
+    }
+
+    static void run(Check check) throws Exception {
+        File dir = Check.createTempDir("pack");
+        try {
+            File file = new File(dir, "library.pack");
+            MeshPack.main(new String[]{file.getPath()});
+            checkRoundTrip(check, MeshPack.open(file));
+            checkDamaged(check, Files.readAllBytes(file.toPath()), dir);
+        } finally {
+            Check.delete(dir);
+        }
+    }
+
+    /**
+     * Every entry of the pack matches the normalized OFF file it was compiled from, and missing files have no entry.
+     */
+    private static void checkRoundTrip(Check check, MeshPack pack) {
+        int found = 0;
+        for (int shapeType = 0; shapeType < MeshLibrary.NUM_SHAPE_TYPES; shapeType++) {
+            for (int numStories = 0; numStories < MeshLibrary.NUM_STORIES; numStories++) {
+                String fileName = MeshLibrary.getFileName(shapeType, numStories);
+                Prototype packed = pack.get(shapeType, numStories);
+                if (!new File(fileName).isFile()) {
+                    check.that(packed == null && pack.getInfo(shapeType, numStories) == null,
+                            "pack holds missing " + fileName);
+                    continue;
+                }
+                found++;
+                Prototype loaded = MeshLibrary.load(fileName, shapeType);
+                check.that(packed != null, "pack lacks " + fileName);
+                if (packed == null)
+                    continue;
+                check.equal(loaded.getVertexCount(), packed.getVertexCount(), fileName + " vertex count");
+                check.equal(loaded.getFaceCount(), packed.getFaceCount(), fileName + " face count");
+                check.that(sameBits(loaded.getVertices(), packed.getVertices()), fileName + " vertices differ");
+                check.that(loaded.getFaces().equals(packed.getFaces()), fileName + " faces differ");
+
+                PrototypeInfo expected = loaded.getInfo(), actual = pack.getInfo(shapeType, numStories);
+                check.equal(expected.getVertexCount(), actual.getVertexCount(), fileName + " info vertex count");
+                check.equal(expected.getFaceCount(), actual.getFaceCount(), fileName + " info face count");
+                check.equal(Float.floatToIntBits(expected.getHeight()), Float.floatToIntBits(actual.getHeight()),
+                        fileName + " height bits");
+                check.that(Arrays.equals(expected.getFootprint(), actual.getFootprint()), fileName + " footprint differs");
+            }
+        }
+        check.that(found > 0, "library has meshes to pack");
+    }
+
+    private static boolean sameBits(FloatBuffer a, FloatBuffer b) {
+        if (a.limit() != b.limit())
+            return false;
+        for (int i = 0; i < a.limit(); i++)
+            if (Float.floatToRawIntBits(a.get(i)) != Float.floatToRawIntBits(b.get(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * Damaged packs fail to open with an IOException, so that MeshLibrary falls back to the OFF files.
+     */
+    private static void checkDamaged(Check check, byte[] pack, File dir) throws IOException {
+        int count = le(pack).getInt(8);
+        check.that(count > 0, "pack has entries");
+
+        checkRefused(check, dir, new byte[0], "empty pack");
+        checkRefused(check, dir, Arrays.copyOf(pack, 12), "pack shorter than its header");
+
+        byte[] damaged = pack.clone();
+        le(damaged).putInt(0, 0x12345678);
+        checkRefused(check, dir, damaged, "bad magic");
+
+        damaged = pack.clone();
+        le(damaged).putInt(4, 1);
+        checkRefused(check, dir, damaged, "old version");
+
+        checkRefused(check, dir, Arrays.copyOf(pack, 16 + 48 * count - 1), "truncated directory");
+
+        damaged = pack.clone();
+        le(damaged).putInt(8, Integer.MAX_VALUE);
+        checkRefused(check, dir, damaged, "entry count beyond the file");
+
+        checkRefused(check, dir, Arrays.copyOf(pack, pack.length - 1), "truncated data");
+
+        damaged = pack.clone();
+        le(damaged).putInt(16, MeshLibrary.NUM_SHAPE_TYPES);
+        checkRefused(check, dir, damaged, "unknown shape type");
+
+        damaged = pack.clone();
+        le(damaged).putLong(16 + 16, pack.length);
+        checkRefused(check, dir, damaged, "vertices out of bounds");
+
+        damaged = pack.clone();
+        le(damaged).putInt(16 + 12, -1);
+        checkRefused(check, dir, damaged, "negative face count");
+    }
+
+    private static void checkRefused(Check check, File dir, byte[] bytes, String description) throws IOException {
+        File file = new File(dir, "damaged.pack");
+        Files.write(file.toPath(), bytes);
+        check.fails(IOException.class, () -> MeshPack.open(file), description);
+    }
+
+    private static ByteBuffer le(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,312 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Regression tests for the mesh writers: the exact output of each format for a small mesh, the rounding of
+ * FixedPointWriter, the count checks of AbstractMeshSink, and one chunk written in every format.
+ */
+public class MeshSinkTest {
+    private static final double[][] VERTICES = {
+            {0, 0, 0}, {1.5, -2.25, 0.0004}, {-0.0004, 3.14159, 10}, {2, 0, -7.0625}
+    };
+    private static final int[][] FACES = {{0, 1, 2}, {0, 2, 3}};
+
+    public static void main(String[] args) throws Exception {
+        Check check = new Check("MeshSinkTest");
+        run(check);
+        check.finish();
+    }
+
+    static void run(Check check) throws Exception {
+        checkOff(check);
+        checkObj(check);
+        checkPly(check);
+        checkStl(check);
+        checkRounding(check);
+        checkCounts(check);
+        checkChunk(check);
+    }
+
+    private static byte[] write(MeshSink sink, ByteArrayOutputStream out) throws IOException {
+        try (MeshSink s = sink) {
+            s.begin(VERTICES.length, FACES.length);
+            for (double[] v : VERTICES)
+                s.vertex(v[0], v[1], v[2]);
+            for (int[] f : FACES)
+                s.face(f[0], f[1], f[2]);
+        }
+        return out.toByteArray();
+    }
+
+    private static void checkOff(Check check) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String off = new String(write(new OffSink(out, 3), out), StandardCharsets.US_ASCII);
+        check.equal("OFF\n4 2 0\n" +
+                "0.000 0.000 0.000\n" +
+                "1.500 -2.250 0.000\n" +
+                "0.000 3.142 10.000\n" +
+                "2.000 0.000 -7.063\n" +
+                "3 0 1 2\n" +
+                "3 0 2 3\n", off, "OFF output");
+
+        out = new ByteArrayOutputStream();
+        off = new String(write(new OffSink(out, 0), out), StandardCharsets.US_ASCII);
+        check.equal("OFF\n4 2 0\n0 0 0\n2 -2 0\n0 3 10\n2 0 -7\n3 0 1 2\n3 0 2 3\n", off, "OFF output with precision 0");
+    }
+
+    private static void checkObj(Check check) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String obj = new String(write(new ObjSink(out, 2), out), StandardCharsets.US_ASCII);
+        check.equal("# Procedural City Generator\n# 4 vertices, 2 faces\n" +
+                "v 0.00 0.00 0.00\n" +
+                "v 1.50 -2.25 0.00\n" +
+                "v 0.00 3.14 10.00\n" +
+                "v 2.00 0.00 -7.06\n" +
+                "f 1 2 3\n" +
+                "f 1 3 4\n", obj, "OBJ output");
+    }
+
+    private static void checkPly(Check check) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] ply = write(new PlySink(out), out);
+        String header = "ply\n" +
+                "format binary_little_endian 1.0\n" +
+                "comment Procedural City Generator\n" +
+                "element vertex 4\n" +
+                "property float x\n" +
+                "property float y\n" +
+                "property float z\n" +
+                "element face 2\n" +
+                "property list uchar int vertex_indices\n" +
+                "end_header\n";
+        check.equal(header.length() + VERTICES.length * 12 + FACES.length * 13, ply.length, "PLY size");
+        check.equal(header, new String(ply, 0, header.length(), StandardCharsets.US_ASCII), "PLY header");
+        ByteBuffer in = ByteBuffer.wrap(ply, header.length(), ply.length - header.length()).order(ByteOrder.LITTLE_ENDIAN);
+        for (double[] v : VERTICES)
+            for (int c = 0; c < 3; c++)
+                check.equal((float) v[c], in.getFloat(), "PLY vertex coordinate");
+        for (int[] f : FACES) {
+            check.equal(3, (int) in.get(), "PLY face size");
+            for (int c = 0; c < 3; c++)
+                check.equal(f[c], in.getInt(), "PLY face index");
+        }
+    }
+
+    private static void checkStl(Check check) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] stl = write(new StlSink(out), out);
+        check.equal(84 + FACES.length * 50, stl.length, "STL size");
+        check.that(new String(stl, 0, 80, StandardCharsets.US_ASCII).trim().equals("Procedural City Generator"),
+                "STL header");
+        ByteBuffer in = ByteBuffer.wrap(stl, 80, stl.length - 80).order(ByteOrder.LITTLE_ENDIAN);
+        check.equal(FACES.length, in.getInt(), "STL face count");
+        for (int[] f : FACES) {
+            double[] a = VERTICES[f[0]], b = VERTICES[f[1]], c = VERTICES[f[2]];
+            double[] u = {b[0] - a[0], b[1] - a[1], b[2] - a[2]}, v = {c[0] - a[0], c[1] - a[1], c[2] - a[2]};
+            double[] n = {u[1] * v[2] - u[2] * v[1], u[2] * v[0] - u[0] * v[2], u[0] * v[1] - u[1] * v[0]};
+            double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+            for (int i = 0; i < 3; i++)
+                check.that(Math.abs(in.getFloat() - n[i] / length) < 1e-5, "STL normal");
+            for (int corner : f)
+                for (int i = 0; i < 3; i++)
+                    check.equal((float) VERTICES[corner][i], in.getFloat(), "STL corner coordinate");
+            check.equal((short) 0, in.getShort(), "STL attribute");
+        }
+    }
+
+    /**
+     * Every written decimal has exactly the requested digits after the point and is within half a unit of the value.
+     */
+    private static void checkRounding(Check check) throws IOException {
+        Random random = new Random(1);
+        for (int precision = 0; precision <= FixedPointWriter.MAX_PRECISION; precision++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            double[] values = new double[1000];
+            try (FixedPointWriter writer = new FixedPointWriter(out, precision)) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(8));
+                    writer.writeFixed(values[i]);
+                    writer.writeByte('\n');
+                }
+            }
+            String[] lines = new String(out.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+            double unit = Math.pow(10, -precision);
+            int bad = 0;
+            for (int i = 0; i < values.length; i++) {
+                String line = lines[i];
+                int point = line.indexOf('.');
+                int digits = point < 0 ? 0 : line.length() - point - 1;
+                double error = Math.abs(Double.parseDouble(line) - values[i]);
+                if (digits != precision || error > unit / 2 + Math.ulp(values[i]) * 4 || line.matches("-0(\\.0*)?"))
+                    bad++;
+            }
+            check.equal(0, bad, "badly rounded values at precision " + precision);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FixedPointWriter writer = new FixedPointWriter(out, 3)) {
+            writer.writeFixed(-0.0004);
+            writer.writeByte(' ');
+            writer.writeFixed(0.0005);
+            writer.writeByte(' ');
+            writer.writeFixed(1e300);
+            writer.writeByte(' ');
+            writer.writeFixed(Double.NaN);
+            writer.writeByte(' ');
+            writer.writeLong(Long.MIN_VALUE);
+        }
+        check.equal("0.000 0.001 1.0E300 NaN " + Long.MIN_VALUE, out.toString("US-ASCII"), "special values");
+        check.fails(IllegalArgumentException.class, () -> new FixedPointWriter(new ByteArrayOutputStream(),
+                FixedPointWriter.MAX_PRECISION + 1), "precision above the maximum");
+    }
+
+    /**
+     * A mesh that does not match the counts given to begin() fails instead of producing a corrupt file.
+     */
+    private static void checkCounts(Check check) {
+        check.fails(IOException.class, () -> {
+            try (MeshSink sink = new OffSink(new ByteArrayOutputStream(), 3)) {
+                sink.begin(2, 1);
+                sink.vertex(0, 0, 0);
+            }
+        }, "missing vertices");
+        check.fails(IllegalStateException.class, () -> {
+            try (MeshSink sink = new PlySink(new ByteArrayOutputStream())) {
+                sink.begin(1, 0);
+                sink.vertex(0, 0, 0);
+                sink.vertex(1, 1, 1);
+            }
+        }, "extra vertex");
+        check.fails(IllegalStateException.class, () -> {
+            try (MeshSink sink = new StlSink(new ByteArrayOutputStream())) {
+                sink.begin(3, 1);
+                sink.vertex(0, 0, 0);
+                sink.vertex(1, 0, 0);
+                sink.vertex(0, 1, 0);
+                sink.face(0, 1, 2);
+                sink.face(0, 1, 2);
+            }
+        }, "extra face");
+        check.fails(IllegalStateException.class, () -> {
+            try (MeshSink sink = new ObjSink(new ByteArrayOutputStream(), 3)) {
+                sink.begin(3, 1);
+                sink.vertex(0, 0, 0);
+                sink.vertex(1, 0, 0);
+                sink.face(0, 1, 1);
+                sink.vertex(0, 1, 0);
+            }
+        }, "vertex after a face");
+    }
+
+    /**
+     * Writes one chunk of a synthetic city in every format and checks that the files describe the same mesh, and that
+     * the manifest entry matches the written file.
+     */
+    private static void checkChunk(Check check) throws IOException {
+        MeshFormat format = App.format;
+        int precision = App.precision;
+        boolean hasAlpha = App.hasAlpha, verbose = App.verbose, roads = App.generateRoads;
+        File dir = Check.createTempDir("sinks");
+        try {
+            App.hasAlpha = true;
+            App.verbose = false;
+            App.generateRoads = true;
+            App.precision = 4;
+            BufferedImage image = new SyntheticMap(2).generate(12, 10);
+            int[] bounds = {0, 0, image.getWidth(), image.getHeight()};
+            ChunkInfo[] infos = new ChunkInfo[MeshFormat.values().length];
+            try (Grid grid = Main.buildChunk(image, bounds, MeshLibrary.NUM_STORIES - 1, null, true, false)) {
+                for (MeshFormat f : MeshFormat.values()) {
+                    App.format = f;
+                    infos[f.ordinal()] = grid.output(dir, 0);
+                }
+            }
+            for (MeshFormat f : MeshFormat.values()) {
+                ChunkInfo info = infos[f.ordinal()];
+                File file = new File(dir, info.getFileName());
+                check.equal(file.length(), info.getBytes(), f + " size in the manifest");
+                check.equal(Grid.toHex(digest(file)), info.getHash(), f + " hash in the manifest");
+            }
+
+            OffReader off = OffReader.parse(new File(dir, infos[MeshFormat.OFF.ordinal()].getFileName()));
+            float[] vertices = off.getVertices();
+            int[] faces = off.getFaces();
+            check.that(faces.length > 0, "chunk has faces");
+            check.equal(infos[0].getVertexCount(), vertices.length / 3, "OFF vertex count");
+            check.equal(infos[0].getFaceCount(), faces.length / 3, "OFF face count");
+
+            ByteBuffer ply = readBody(new File(dir, infos[MeshFormat.PLY.ordinal()].getFileName()));
+            int far = 0;
+            for (float v : vertices)
+                if (Math.abs(ply.getFloat() - v) > 0.5e-4 + Math.ulp(v))
+                    far++;
+            check.equal(0, far, "PLY vertices away from the OFF vertices");
+            int wrong = 0;
+            for (int i = 0; i < faces.length; i += 3)
+                if (ply.get() != 3 || ply.getInt() != faces[i] || ply.getInt() != faces[i + 1]
+                        || ply.getInt() != faces[i + 2])
+                    wrong++;
+            check.equal(0, wrong, "PLY faces unlike the OFF faces");
+
+            byte[] stl = Files.readAllBytes(new File(dir, infos[MeshFormat.STL.ordinal()].getFileName()).toPath());
+            check.equal(84L + 50L * faces.length / 3, (long) stl.length, "STL size");
+
+            String obj = new String(Files.readAllBytes(new File(dir, infos[MeshFormat.OBJ.ordinal()].getFileName())
+                    .toPath()), StandardCharsets.US_ASCII);
+            String[] lines = obj.split("\n");
+            check.equal(2 + (vertices.length + faces.length) / 3, lines.length, "OBJ line count");
+            String[] firstFace = lines[2 + vertices.length / 3].split(" ");
+            check.equal("f " + (faces[0] + 1) + " " + (faces[1] + 1) + " " + (faces[2] + 1),
+                    String.join(" ", firstFace), "OBJ first face");
+        } finally {
+            App.format = format;
+            App.precision = precision;
+            App.hasAlpha = hasAlpha;
+            App.verbose = verbose;
+            App.generateRoads = roads;
+            Check.delete(dir);
+        }
+    }
+
+    private static byte[] digest(File file) throws IOException {
+        return Grid.newDigest().digest(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * Reads the binary body of a PLY file, following its header.
+     */
+    private static ByteBuffer readBody(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        String text = new String(bytes, StandardCharsets.US_ASCII);
+        int start = text.indexOf("end_header\n") + "end_header\n".length();
+        return ByteBuffer.wrap(bytes, start, bytes.length - start).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
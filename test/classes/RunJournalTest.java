@@ -0,0 +1,177 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Regression test for resuming a run from its RunJournal: chunks whose files were lost, damaged or never recorded are
+ * generated again, the rest are kept untouched, and the result is byte for byte the output of the complete run.
+ */
+public class RunJournalTest {
+    private static final String CHUNK_PREFIX = "city_chunk_";
+    // Modification time given to the chunk files, so that files written again can be told from kept ones
+    private static final long OLD_TIME = 1000000000000L;
+
+    public static void main(String[] args) throws Exception {
+        Check check = new Check("RunJournalTest");
+        run(check);
+        check.finish();
+    }
+
+    static void run(Check check) throws Exception {
+        int scale = App.scale;
+        boolean hasAlpha = App.hasAlpha, verbose = App.verbose, journal = App.journalRun, resume = App.resume;
+        File dir = Check.createTempDir("journal");
+        try {
+            App.scale = 1;
+            App.hasAlpha = true;
+            App.verbose = false;
+            App.journalRun = true;
+            App.resume = false;
+            checkResume(check, dir);
+        } finally {
+            App.scale = scale;
+            App.hasAlpha = hasAlpha;
+            App.verbose = verbose;
+            App.journalRun = journal;
+            App.resume = resume;
+            Check.delete(dir);
+        }
+    }
+
+    private static void checkResume(Check check, File dir) throws IOException {
+        BufferedImage image = new SyntheticMap(5).setStories(0, 3).generate(40, 40);
+        ChunkManifest manifest = Main.generate(image, dir);
+        check.that(manifest != null, "first run wrote a manifest");
+        HashMap<String, byte[]> expected = readOutput(dir);
+        String[] chunks = chunkNames(dir);
+        check.equal(9, chunks.length, "chunk count");
+        File journalFile = new File(dir, RunJournal.JOURNAL_FILE);
+        String journal = new String(Files.readAllBytes(journalFile.toPath()), StandardCharsets.UTF_8);
+        check.equal(2 + chunks.length, journal.split("\n").length, "journal lines");
+
+        // A run that died: one chunk lost, one damaged in place, one cut short, and the last line of the journal
+        // half written
+        new File(dir, chunks[1]).delete();
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, chunks[2]), "rw")) {
+            file.seek(file.length() / 2);
+            int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 1);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, chunks[3]), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        String lastChunk = chunks[8];
+        int lastLine = journal.lastIndexOf("chunk 8 ");
+        check.that(lastLine > 0, "journal records the last chunk");
+        Files.write(journalFile.toPath(), journal.substring(0, lastLine + (journal.length() - lastLine) / 2)
+                .getBytes(StandardCharsets.UTF_8));
+        new File(dir, ChunkManifest.MANIFEST_FILE).delete();
+        setOld(dir, chunks);
+
+        App.resume = true;
+        Main.generate(image, dir);
+        checkOutput(check, dir, expected, "resumed run");
+        checkRewritten(check, dir, chunks, Arrays.asList(chunks[1], chunks[2], chunks[3], lastChunk), "resumed run");
+        check.equal(0, dir.list((d, name) -> name.endsWith(RunJournal.PART_SUFFIX)).length, "partial files left");
+
+        // Every chunk is recorded again, including the one whose line was cut short
+        setOld(dir, chunks);
+        Main.generate(image, dir);
+        checkOutput(check, dir, expected, "second resumed run");
+        checkRewritten(check, dir, chunks, new ArrayList<>(), "second resumed run");
+
+        // A journal for other parameters is not resumed
+        image.setRGB(0, 0, image.getRGB(0, 0) ^ 0x010000);
+        setOld(dir, chunks);
+        Main.generate(image, dir);
+        check.equal(chunks.length, rewritten(dir, chunks).size(), "chunks written again for a changed image");
+        String restarted = new String(Files.readAllBytes(journalFile.toPath()), StandardCharsets.UTF_8);
+        check.equal(2 + chunks.length, restarted.split("\n").length, "journal lines of the changed image");
+        check.that(!restarted.substring(0, restarted.indexOf("\nchunk"))
+                .equals(journal.substring(0, journal.indexOf("\nchunk"))), "journal restarted with new parameters");
+    }
+
+    private static HashMap<String, byte[]> readOutput(File dir) throws IOException {
+        HashMap<String, byte[]> files = new HashMap<>();
+        for (String name : dir.list())
+            if (!name.equals(RunJournal.JOURNAL_FILE))
+                files.put(name, Files.readAllBytes(new File(dir, name).toPath()));
+        return files;
+    }
+
+    private static void checkOutput(Check check, File dir, HashMap<String, byte[]> expected, String description)
+            throws IOException {
+        HashMap<String, byte[]> actual = readOutput(dir);
+        check.equal(new ArrayList<>(new TreeSet<>(expected.keySet())),
+                new ArrayList<>(new TreeSet<>(actual.keySet())), description + ": files written");
+        for (String name : expected.keySet())
+            check.equal(expected.get(name), actual.get(name), description + ": " + name);
+    }
+
+    private static void checkRewritten(Check check, File dir, String[] chunks, List<String> expected,
+                                       String description) {
+        ArrayList<String> sorted = new ArrayList<>(expected);
+        sorted.sort(null);
+        check.equal(sorted, rewritten(dir, chunks), description + ": chunks written again");
+    }
+
+    /**
+     * @return the chunk files written since setOld(), in order.
+     */
+    private static ArrayList<String> rewritten(File dir, String[] chunks) {
+        ArrayList<String> names = new ArrayList<>();
+        for (String name : chunks)
+            if (new File(dir, name).lastModified() != OLD_TIME)
+                names.add(name);
+        names.sort(null);
+        return names;
+    }
+
+    private static void setOld(File dir, String[] chunks) {
+        for (String name : chunks) {
+            File file = new File(dir, name);
+            if (file.isFile())
+                file.setLastModified(OLD_TIME);
+        }
+    }
+
+    private static String[] chunkNames(File dir) {
+        String[] names = dir.list((d, name) -> name.startsWith(CHUNK_PREFIX));
+        Arrays.sort(names, (a, b) -> Integer.compare(chunkNumber(a), chunkNumber(b)));
+        return names;
+    }
+
+    private static int chunkNumber(String name) {
+        return Integer.parseInt(name.substring(CHUNK_PREFIX.length(), name.indexOf('.')));
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ *     Copyright (C) 2019 Matthew Buchanan
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package classes;
+
+import gui.App;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Regression tests for VertexCacheOptimizer: a reordered mesh has the same vertices and the same triangles with the
+ * same winding, in an order with fewer cache misses, and a chunk built from reordered buildings holds the same
+ * triangles as one built without.
+ */
+public class VertexCacheOptimizerTest {
+
+    public static void main(String[] args) throws Exception {
+        Check check = new Check("VertexCacheOptimizerTest");
+        run(check);
+        check.finish();
+    }
+
+    static void run(Check check) throws Exception {
+        checkGrid(check);
+        checkLibrary(check);
+        checkChunk(check);
+    }
+
+    /**
+     * A regular grid given in shuffled order, with one vertex no triangle uses.
+     */
+    private static void checkGrid(Check check) {
+        int size = 30;
+        float[] vertices = new float[((size + 1) * (size + 1) + 1) * 3];
+        for (int y = 0; y <= size; y++) {
+            for (int x = 0; x <= size; x++) {
+                int v = (y * (size + 1) + x) * 3;
+                vertices[v] = x;
+                vertices[v + 1] = y;
+            }
+        }
+        vertices[vertices.length - 3] = -1;
+        ArrayList<int[]> triangles = new ArrayList<>();
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = y * (size + 1) + x;
+                triangles.add(new int[]{v, v + 1, v + size + 2});
+                triangles.add(new int[]{v, v + size + 2, v + size + 1});
+            }
+        }
+        Collections.shuffle(triangles, new Random(3));
+        int[] faces = new int[triangles.size() * 3];
+        for (int t = 0; t < triangles.size(); t++)
+            System.arraycopy(triangles.get(t), 0, faces, t * 3, 3);
+
+        Prototype optimized = VertexCacheOptimizer.optimize(FloatBuffer.wrap(vertices), IntBuffer.wrap(faces));
+        checkSameMesh(check, FloatBuffer.wrap(vertices), IntBuffer.wrap(faces), optimized, "grid");
+        FloatBuffer v = optimized.getVertices();
+        check.equal(-1f, v.get(v.limit() - 3), "unused vertex kept last");
+        int vertexCount = vertices.length / 3;
+        double before = (double) VertexCacheOptimizer.countCacheMisses(IntBuffer.wrap(faces), vertexCount,
+                VertexCacheOptimizer.CACHE_SIZE) / triangles.size();
+        double after = (double) VertexCacheOptimizer.countCacheMisses(optimized.getFaces(), vertexCount,
+                VertexCacheOptimizer.CACHE_SIZE) / triangles.size();
+        check.that(before > 2, "shuffled grid misses the cache: " + before);
+        check.that(after < 1, "reordered grid hits the cache: " + after);
+    }
+
+    /**
+     * Every building of the library.
+     */
+    private static void checkLibrary(Check check) {
+        long before = 0, after = 0;
+        for (int shapeType = 0; shapeType < MeshLibrary.NUM_SHAPE_TYPES; shapeType++) {
+            for (int numStories = 0; numStories < MeshLibrary.NUM_STORIES; numStories++) {
+                String fileName = MeshLibrary.getFileName(shapeType, numStories);
+                if (!new File(fileName).isFile())
+                    continue;
+                Prototype prototype = MeshLibrary.load(fileName, shapeType);
+                Prototype optimized = VertexCacheOptimizer.optimize(prototype.getVertices(), prototype.getFaces());
+                checkSameMesh(check, prototype.getVertices(), prototype.getFaces(), optimized, fileName);
+                check.equal(prototype.getInfo().getHeight(), optimized.getInfo().getHeight(), fileName + " height");
+                before += prototype.getCacheMisses(false);
+                after += optimized.getCacheMisses(false);
+                check.that(optimized.getCacheMisses(true) <= prototype.getCacheMisses(true),
+                        fileName + " has more cache misses above its base");
+            }
+        }
+        check.that(after < before, "library cache misses " + before + " before and " + after + " after reordering");
+    }
+
+    /**
+     * A chunk of a synthetic city with culling, built with and without reordering.
+     */
+    private static void checkChunk(Check check) throws IOException {
+        boolean hasAlpha = App.hasAlpha, verbose = App.verbose, cull = App.cullHiddenFaces;
+        boolean optimize = App.optimizeVertexCache;
+        File dir = Check.createTempDir("cache");
+        try {
+            App.hasAlpha = true;
+            App.verbose = false;
+            App.cullHiddenFaces = true;
+            BufferedImage image = new SyntheticMap(6).generate(12, 10);
+            int[] bounds = {0, 0, image.getWidth(), image.getHeight()};
+            Prototype[] meshes = new Prototype[2];
+            int[] culled = new int[2];
+            for (int pass = 0; pass < 2; pass++) {
+                App.optimizeVertexCache = pass == 1;
+                try (Grid grid = Main.buildChunk(image, bounds, MeshLibrary.NUM_STORIES - 1, null, false, false)) {
+                    culled[pass] = grid.getCulledFaceCount();
+                    ChunkInfo info = grid.output(dir, pass);
+                    OffReader mesh = OffReader.parse(new File(dir, info.getFileName()));
+                    meshes[pass] = new Prototype(mesh.getVertices(), mesh.getFaces());
+                }
+            }
+            check.equal(culled[0], culled[1], "culled faces with reordering");
+            checkSameMesh(check, meshes[0].getVertices(), meshes[0].getFaces(), meshes[1], "chunk");
+        } finally {
+            App.hasAlpha = hasAlpha;
+            App.verbose = verbose;
+            App.cullHiddenFaces = cull;
+            App.optimizeVertexCache = optimize;
+            Check.delete(dir);
+        }
+    }
+
+    private static void checkSameMesh(Check check, FloatBuffer vertices, IntBuffer faces, Prototype actual,
+                                      String description) {
+        check.equal(vertices.limit() / 3, actual.getVertexCount(), description + " vertex count");
+        check.equal(faces.limit() / 3, actual.getFaceCount(), description + " face count");
+        check.that(sortedVertices(vertices).equals(sortedVertices(actual.getVertices())), description + " vertices differ");
+        check.that(sortedTriangles(vertices, faces).equals(sortedTriangles(actual.getVertices(), actual.getFaces())),
+                description + " triangles differ");
+    }
+
+    private static ArrayList<String> sortedVertices(FloatBuffer vertices) {
+        ArrayList<String> keys = new ArrayList<>();
+        for (int v = 0; v < vertices.limit() / 3; v++)
+            keys.add(vertexKey(vertices, v));
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Describes each triangle by the coordinates of its corners, starting from the least corner so that triangles
+     * with the same winding compare equal however their corners are numbered.
+     */
+    private static ArrayList<String> sortedTriangles(FloatBuffer vertices, IntBuffer faces) {
+        ArrayList<String> keys = new ArrayList<>();
+        for (int f = 0; f < faces.limit(); f += 3) {
+            String[] corners = {vertexKey(vertices, faces.get(f)), vertexKey(vertices, faces.get(f + 1)),
+                    vertexKey(vertices, faces.get(f + 2))};
+            int first = 0;
+            for (int i = 1; i < 3; i++)
+                if (corners[i].compareTo(corners[first]) < 0)
+                    first = i;
+            keys.add(corners[first] + "|" + corners[(first + 1) % 3] + "|" + corners[(first + 2) % 3]);
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static String vertexKey(FloatBuffer vertices, int v) {
+        return vertices.get(v * 3) + " " + vertices.get(v * 3 + 1) + " " + vertices.get(v * 3 + 2);
+    }
+}